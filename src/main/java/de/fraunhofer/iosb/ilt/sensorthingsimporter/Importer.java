@@ -17,6 +17,7 @@
  */
 package de.fraunhofer.iosb.ilt.sensorthingsimporter;
 
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.Checkpoint;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.ProgressTracker;
 import de.fraunhofer.iosb.ilt.sta.model.Observation;
 import java.util.List;
@@ -45,6 +46,17 @@ public interface Importer extends Iterable<List<Observation>> {
         // does nothing by default
     }
 
+    /**
+     * Set the checkpoint to resume from, and to record progress in. Called
+     * before iteration starts. The importer records its position each time it
+     * returns a list of Observations.
+     *
+     * @param checkpoint The checkpoint to use.
+     */
+    public default void setCheckpoint(Checkpoint checkpoint) {
+        // does nothing by default
+    }
+
     public default String getErrorLog() {
         return "";
     }
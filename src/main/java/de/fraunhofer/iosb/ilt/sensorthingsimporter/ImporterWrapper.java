@@ -24,13 +24,19 @@ import de.fraunhofer.iosb.ilt.configurable.AnnotatedConfigurable;
 import de.fraunhofer.iosb.ilt.configurable.ConfigEditor;
 import de.fraunhofer.iosb.ilt.configurable.ConfigurationException;
 import de.fraunhofer.iosb.ilt.configurable.annotations.ConfigurableField;
+import de.fraunhofer.iosb.ilt.configurable.editor.EditorBoolean;
 import de.fraunhofer.iosb.ilt.configurable.editor.EditorClass;
 import de.fraunhofer.iosb.ilt.configurable.editor.EditorInt;
 import de.fraunhofer.iosb.ilt.configurable.editor.EditorString;
 import de.fraunhofer.iosb.ilt.configurable.editor.EditorSubclass;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.scheduler.ImporterScheduler;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.ChangingStatusLogger;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.Checkpoint;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.CircuitBreaker;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.KeyedScheduler;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.MemoryBudget;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.ProgressTracker;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.VirtualThreads;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.validator.Validator;
 import de.fraunhofer.iosb.ilt.sta.ServiceFailureException;
 import de.fraunhofer.iosb.ilt.sta.StatusCodeException;
@@ -42,23 +48,22 @@ import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Calendar;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.Objects;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 import org.apache.commons.io.FileUtils;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.slf4j.Logger;
@@ -74,7 +79,6 @@ public class ImporterWrapper implements AnnotatedConfigurable<SensorThingsServic
      * The logger for this class.
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(ImporterWrapper.class);
-    private static final long MAX_QUEUE_LOCK_SECONDS = 60;
     private final LoggingStatus logStatus = new LoggingStatus();
     private static final String NAME_DEFAULT = "Work";
 
@@ -108,6 +112,46 @@ public class ImporterWrapper implements AnnotatedConfigurable<SensorThingsServic
     @EditorInt.EdOptsInt(dflt = 10)
     private int validatorQueueSize;
 
+    @ConfigurableField(editor = EditorBoolean.class, optional = true,
+            label = "Partition Validators",
+            description = "Route each (Multi)Datastream to a fixed validator thread, based on the hash of its id, "
+                    + "so per-thread caches stay warm. Each thread gets its own queue of ValidatorQueue size.")
+    @EditorBoolean.EdOptsBool()
+    private boolean partitionValidators;
+
+    @ConfigurableField(editor = EditorBoolean.class, optional = true,
+            label = "Virtual Threads",
+            description = "Run validators and async uploads on virtual threads (Java 21+). "
+                    + "Allows many more ValidatorThreads, limited by Max Concurrent Validations.")
+    @EditorBoolean.EdOptsBool()
+    private boolean virtualThreads;
+
+    @ConfigurableField(editor = EditorInt.class, optional = true,
+            label = "Max Concurrent Validations",
+            description = "The maximum number of Datastreams validated at the same time. 0 for no limit other than ValidatorThreads.")
+    @EditorInt.EdOptsInt(dflt = 0, min = 0, max = 100_000, step = 1)
+    private int maxConcurrentValidations;
+
+    @ConfigurableField(editor = EditorInt.class, optional = true,
+            label = "Memory Budget",
+            description = "The estimated heap (MB) that Observations may use between reading and sending. "
+                    + "Reading slows down when the budget is used up. 0 to only limit the number of Observations read at once.")
+    @EditorInt.EdOptsInt(dflt = 0, min = 0, max = Integer.MAX_VALUE, step = 64)
+    private int memoryBudgetMb;
+
+    @ConfigurableField(editor = EditorString.class, optional = true,
+            label = "Checkpoint File",
+            description = "The file to record import progress in. An interrupted import resumes from it, "
+                    + "the file is deleted when the import finishes. Leave empty to disable.")
+    @EditorString.EdOptsString(dflt = "")
+    private String checkpointFile;
+
+    @ConfigurableField(editor = EditorInt.class, optional = true,
+            label = "Checkpoint Interval",
+            description = "The minimum time (s) between checkpoints. Each checkpoint waits for all read Observations to be sent.")
+    @EditorInt.EdOptsInt(dflt = 300, min = 1, max = Integer.MAX_VALUE, step = 60)
+    private int checkpointIntervalSeconds;
+
     @ConfigurableField(editor = EditorString.class, optional = false,
             label = "Name", description = "The name to use in log messages")
     @EditorString.EdOptsString(dflt = NAME_DEFAULT)
@@ -119,13 +163,26 @@ public class ImporterWrapper implements AnnotatedConfigurable<SensorThingsServic
     private long generated = 0;
     private final AtomicLong validated = new AtomicLong();
     private final AtomicLong active = new AtomicLong();
-    private final AtomicLong queued = new AtomicLong();
 
-    private LinkedBlockingQueue<ObservationList> queuePerDs;
-    private final Lock queueLock = new ReentrantLock();
-    private final Condition cWorkDone = queueLock.newCondition();
-    private final Set<Entity> activeDatastreams = new ConcurrentSkipListSet<>(new ObservationUploader.EntityComparator());
+    /**
+     * Hands the Observations of each (Multi)Datastream to one validator at a
+     * time, and only when the uploader has no unsent Observations for it.
+     */
+    private KeyedScheduler<Entity, ObservationList> scheduler;
+    /**
+     * The queues of the validator threads, when validators are partitioned.
+     */
+    private final List<BlockingQueue<ObservationList>> partitions = new ArrayList<>();
+    private final AtomicLong partitionQueued = new AtomicLong();
+    private final Object uploadMonitor = new Object();
+    private Semaphore validationPermits;
+    private MemoryBudget memoryBudget;
+    /**
+     * The memory reserved for Observations that are read, but not queued yet.
+     */
+    private long unqueuedBytes;
     private final List<ValidatorRunner> validators = new ArrayList<>();
+    private Checkpoint checkpoint;
 
     // Don't cache too many observations.
     private final long maxSend = 100000;
@@ -142,6 +199,13 @@ public class ImporterWrapper implements AnnotatedConfigurable<SensorThingsServic
         context.rebuildHttpClient();
 
         validator.setObservationUploader(uploader);
+        scheduler = new KeyedScheduler<>(new ObservationUploader.EntityComparator(), uploader::isActive, validatorQueueSize);
+        uploader.setUploadDoneListener(ds -> {
+            scheduler.wakeUp(ds);
+            synchronized (uploadMonitor) {
+                uploadMonitor.notifyAll();
+            }
+        });
 
         logStatus.setName(name);
 
@@ -150,7 +214,10 @@ public class ImporterWrapper implements AnnotatedConfigurable<SensorThingsServic
         }
 
         doSleep = sleep > 0;
-        queuePerDs = new LinkedBlockingQueue<>(validatorQueueSize);
+        validationPermits = maxConcurrentValidations > 0 ? new Semaphore(maxConcurrentValidations) : null;
+        uploader.setVirtualThreads(virtualThreads);
+        memoryBudget = memoryBudgetMb > 0 ? new MemoryBudget(memoryBudgetMb * 1024L * 1024L) : null;
+        uploader.setMemoryBudget(memoryBudget);
     }
 
     public void setName(String name) {
@@ -163,15 +230,24 @@ public class ImporterWrapper implements AnnotatedConfigurable<SensorThingsServic
     private void doImport() {
         logStatus.setName("⏵" + name);
         Calendar start = Calendar.getInstance();
+        uploader.startUploads();
         startValidatorThreads(start);
         // Map of Obs per Ds/MDs
         Map<Entity, ObservationList> obsPerDs = new HashMap<>();
 
+        openCheckpoint();
+        boolean finished = false;
         try {
+            long nextCheckpoint = System.currentTimeMillis() + checkpointIntervalSeconds * 1000L;
             for (List<Observation> observations : importer) {
                 queueObservationsForValidation(observations, obsPerDs, start);
-                logStatus.setErrors(importer.getErrorCount());
+                logStatus.setErrors(importer.getErrorCount() + (int) uploader.getFailed());
+                if (checkpoint != null && System.currentTimeMillis() >= nextCheckpoint) {
+                    saveCheckpoint(obsPerDs, start);
+                    nextCheckpoint = System.currentTimeMillis() + checkpointIntervalSeconds * 1000L;
+                }
             }
+            finished = true;
         } catch (RuntimeException exc) {
             LOGGER.error("Failed to import: {}", exc.getMessage());
             LOGGER.debug("Details:", exc);
@@ -179,13 +255,22 @@ public class ImporterWrapper implements AnnotatedConfigurable<SensorThingsServic
 
         queueObservationsForSending(obsPerDs, start);
 
+        try {
+            scheduler.awaitIdle();
+        } catch (InterruptedException ex) {
+            LOGGER.error("Interrupted waiting for validation to finish!");
+        }
         waitForValidatorThreads();
+        uploader.finishUploads();
+        closeCheckpoint(finished);
 
         logStatus.setInsertedCount(uploader.getInserted());
         logStatus.setUpdatedCount(uploader.getUpdated());
         logStatus.setDeletedCount(uploader.getDeleted());
         logStatus.setSpeed(getSpeed(start, validated.get()));
-        logStatus.setErrors(importer.getErrorCount());
+        logStatus.setErrors(importer.getErrorCount() + (int) uploader.getFailed());
+        logStatus.setValidatorStats(validator.getStatistics());
+        updateRetryStatus();
         logStatus.setName("⏹" + name);
         String errors = importer.getErrorLog();
         if (!errors.isBlank()) {
@@ -193,6 +278,83 @@ public class ImporterWrapper implements AnnotatedConfigurable<SensorThingsServic
         }
     }
 
+    private void openCheckpoint() {
+        checkpoint = null;
+        if (Utils.isNullOrEmpty(checkpointFile)) {
+            return;
+        }
+        try {
+            checkpoint = new Checkpoint(Paths.get(checkpointFile));
+            importer.setCheckpoint(checkpoint);
+        } catch (IOException exc) {
+            LOGGER.error("Failed to open checkpoint, starting from the beginning: {}", exc.getMessage());
+            LOGGER.debug("Details:", exc);
+        }
+    }
+
+    /**
+     * Sends all Observations read so far, and saves the position of the
+     * importer. The position is only valid once everything before it is
+     * sent, so this waits for the validators and the uploader to drain.
+     */
+    private void saveCheckpoint(Map<Entity, ObservationList> obsPerDs, Calendar start) {
+        queueObservationsForSending(obsPerDs, start);
+        try {
+            awaitDrained();
+            checkpoint.save();
+            LOGGER.info("Saved checkpoint after {} Observations.", generated);
+        } catch (InterruptedException ex) {
+            LOGGER.error("Interrupted waiting for Observations to be sent, not saving checkpoint!");
+            Thread.currentThread().interrupt();
+        } catch (IOException exc) {
+            LOGGER.error("Failed to save checkpoint: {}", exc.getMessage());
+            LOGGER.debug("Details:", exc);
+        }
+    }
+
+    private void closeCheckpoint(boolean finished) {
+        if (checkpoint == null) {
+            return;
+        }
+        try {
+            if (finished) {
+                checkpoint.delete();
+            } else {
+                // Everything read is sent by now, keep the position for the next run.
+                checkpoint.save();
+            }
+        } catch (IOException exc) {
+            LOGGER.error("Failed to update checkpoint: {}", exc.getMessage());
+            LOGGER.debug("Details:", exc);
+        }
+        checkpoint = null;
+    }
+
+    /**
+     * Waits until all queued Observations are validated, and the uploader has
+     * sent all valid ones.
+     */
+    private void awaitDrained() throws InterruptedException {
+        synchronized (uploadMonitor) {
+            while (!isDrained()) {
+                uploadMonitor.wait(100);
+            }
+        }
+    }
+
+    private boolean isDrained() {
+        // Order matters: validators are busy before their work is counted as done.
+        if (scheduler.getPendingCount() > 0 || partitionQueued.get() > 0) {
+            return false;
+        }
+        for (ValidatorRunner runner : validators) {
+            if (!runner.isIdle()) {
+                return false;
+            }
+        }
+        return !uploader.hasActiveDatastreams();
+    }
+
     private void queueObservationsForValidation(List<Observation> observations, Map<Entity, ObservationList> obsPerDs, Calendar start) {
         for (Observation observation : observations) {
             try {
@@ -201,8 +363,10 @@ public class ImporterWrapper implements AnnotatedConfigurable<SensorThingsServic
                     key = observation.getMultiDatastream();
                 }
 
+                // Reserve first, this may queue the lists in obsPerDs.
+                final long size = reserveMemory(observation, obsPerDs, start);
                 ObservationList obsList = obsPerDs.computeIfAbsent(key, t -> new ObservationList(t));
-                obsList.add(observation);
+                obsList.add(observation, size);
                 logStatus.setGeneratedCount(++generated);
                 nextSend--;
             } catch (StatusCodeException exc) {
@@ -215,63 +379,96 @@ public class ImporterWrapper implements AnnotatedConfigurable<SensorThingsServic
                 LOGGER.debug("Details:", exc);
             }
         }
-        if (nextSend <= 0) {
+        if ((memoryBudget == null && nextSend <= 0) || (memoryBudget != null && unqueuedBytes > memoryBudget.getBudgetBytes() / 2)) {
             queueObservationsForSending(obsPerDs, start);
             nextSend = maxSend;
         }
     }
 
+    /**
+     * Reserve memory for the given Observation. If the budget is used up, the
+     * Observations read so far are queued first, so the validators can work
+     * on them and free memory.
+     *
+     * @return The reserved number of bytes.
+     */
+    private long reserveMemory(Observation observation, Map<Entity, ObservationList> obsPerDs, Calendar start) {
+        if (memoryBudget == null) {
+            return 0;
+        }
+        final long size = MemoryBudget.estimateSize(observation);
+        if (!memoryBudget.tryAcquire(size)) {
+            queueObservationsForSending(obsPerDs, start);
+            try {
+                memoryBudget.acquire(size);
+            } catch (InterruptedException ex) {
+                LOGGER.error("Interrupted waiting for memory!");
+                Thread.currentThread().interrupt();
+                return 0;
+            }
+        }
+        logStatus.setMemory(memoryBudget.getUsedBytes() / (1024 * 1024));
+        unqueuedBytes += size;
+        return size;
+    }
+
     private double getSpeed(Calendar since, long inserted) {
         Calendar now = Calendar.getInstance();
         double seconds = 1e-3 * (now.getTimeInMillis() - since.getTimeInMillis());
         return inserted / seconds;
     }
 
-    private void sleepWhileQueueing() {
-        LOGGER.debug("Sleeping while Queueing Observations...");
-        queueLock.lock();
-        try {
-            cWorkDone.await(MAX_QUEUE_LOCK_SECONDS, TimeUnit.SECONDS);
-        } catch (InterruptedException ex) {
-            // It's Fine
-        } finally {
-            queueLock.unlock();
-        }
-        LOGGER.debug("Sleeping while Queueing Observations Done.");
-    }
-
     private void queueObservationsForSending(Map<Entity, ObservationList> obsPerDs, Calendar start) {
         LOGGER.debug("Queueing Observations for {} Datastreams.", obsPerDs.size());
-        while (!obsPerDs.isEmpty()) {
-            boolean shouldSleep = false;
-            for (Iterator<Map.Entry<Entity, ObservationList>> it = obsPerDs.entrySet().iterator(); it.hasNext();) {
-                Map.Entry<Entity, ObservationList> entry = it.next();
-                Entity key = entry.getKey();
-                if (activeDatastreams.contains(key) || uploader.isActive(key)) {
-                    shouldSleep = true;
+        unqueuedBytes = 0;
+        for (Map.Entry<Entity, ObservationList> entry : obsPerDs.entrySet()) {
+            try {
+                if (partitionValidators) {
+                    partitionQueued.incrementAndGet();
+                    partitionFor(entry.getKey()).put(entry.getValue());
                 } else {
-                    ObservationList observations = entry.getValue();
-                    activeDatastreams.add(key);
-                    logStatus.setQueuedCount(queued.incrementAndGet());
-                    try {
-                        queuePerDs.put(observations);
-                    } catch (InterruptedException ex) {
-                        LOGGER.error("Interupted while queuing Observations!", ex);
-                    }
-                    it.remove();
+                    scheduler.submit(entry.getKey(), entry.getValue());
                 }
+            } catch (InterruptedException ex) {
+                LOGGER.error("Interupted while queuing Observations!", ex);
             }
-            if (shouldSleep) {
-                sleepWhileQueueing();
+            updateQueuedStatus();
+        }
+        obsPerDs.clear();
+    }
+
+    private BlockingQueue<ObservationList> partitionFor(Entity ds) {
+        return partitions.get(Math.floorMod(Objects.hashCode(ds.getId()), partitions.size()));
+    }
+
+    private void updateQueuedStatus() {
+        logStatus.setQueuedCount(scheduler.getPendingCount() + partitionQueued.get());
+    }
+
+    /**
+     * Waits until the uploader has sent all Observations of the given
+     * (Multi)Datastream.
+     */
+    private void awaitUploaded(Entity ds) throws InterruptedException {
+        synchronized (uploadMonitor) {
+            while (uploader.isActive(ds)) {
+                uploadMonitor.wait(1000);
             }
         }
     }
 
     private void startValidatorThreads(Calendar start) {
         LOGGER.debug("Starting Validators...");
+        partitions.clear();
+        final ThreadFactory threadFactory = VirtualThreads.factory("Validator-" + name + "-", virtualThreads);
         for (int i = 0; i < validatorThreads; i++) {
-            final ValidatorRunner validatorRunner = new ValidatorRunner(queuePerDs, start);
-            final Thread thread = new Thread(validatorRunner);
+            BlockingQueue<ObservationList> partition = null;
+            if (partitionValidators) {
+                partition = new LinkedBlockingQueue<>(validatorQueueSize);
+                partitions.add(partition);
+            }
+            final ValidatorRunner validatorRunner = new ValidatorRunner(start, partition);
+            final Thread thread = threadFactory.newThread(validatorRunner);
             validators.add(validatorRunner);
             thread.start();
         }
@@ -309,16 +506,28 @@ public class ImporterWrapper implements AnnotatedConfigurable<SensorThingsServic
         }
     }
 
-    private void validateAndSend(List<Observation> observations, Calendar start) {
-        for (Observation observation : observations) {
+    private void validateAndSend(ObservationList observations, Calendar start) {
+        BitSet valid;
+        try {
+            valid = validator.isValid(observations.observations);
+        } catch (ImportException | RuntimeException exc) {
+            // Treat all as invalid, the loop below still releases their memory.
+            LOGGER.error("Failed to validate Observations: {}", exc.getMessage());
+            LOGGER.debug("Exception.", exc);
+            valid = new BitSet();
+        }
+        final int count = observations.observations.size();
+        for (int i = 0; i < count; i++) {
+            final Observation observation = observations.observations.get(i);
+            final long size = observations.getSize(i);
+            boolean handedOver = false;
             try {
-                if (validator.isValid(observation)) {
-                    uploader.addObservation(observation);
+                if (valid.get(i)) {
+                    // The uploader releases the memory from here on.
+                    handedOver = true;
+                    uploader.addObservation(observation, size);
                     logStatus.setValidatedCount(validated.incrementAndGet());
                 }
-            } catch (ImportException exc) {
-                LOGGER.error("Failed to validate Observation: {}", exc.getMessage());
-                LOGGER.debug("Exception.", exc);
             } catch (StatusCodeException exc) {
                 LOGGER.error("URL: {}", exc.getUrl());
                 LOGGER.error("Code: {} {}", exc.getStatusCode(), exc.getStatusMessage());
@@ -327,13 +536,28 @@ public class ImporterWrapper implements AnnotatedConfigurable<SensorThingsServic
             } catch (ServiceFailureException | RuntimeException exc) {
                 LOGGER.error("Failed to upload: {}", exc.getMessage());
                 LOGGER.debug("Details:", exc);
+            } finally {
+                if (!handedOver && memoryBudget != null) {
+                    memoryBudget.release(size);
+                }
             }
             maybeSleep();
         }
+        if (memoryBudget != null) {
+            logStatus.setMemory(memoryBudget.getUsedBytes() / (1024 * 1024));
+        }
         logStatus.setDeletedCount(uploader.getDeleted());
         logStatus.setInsertedCount(uploader.getInserted());
         logStatus.setUpdatedCount(uploader.getUpdated());
         logStatus.setSpeed(getSpeed(start, validated.get()));
+        logStatus.setValidatorStats(validator.getStatistics());
+        updateRetryStatus();
+    }
+
+    private void updateRetryStatus() {
+        logStatus.setRetries(uploader.getRetries());
+        logStatus.setBackoffSeconds(uploader.getBackoffMillis() / 1000);
+        logStatus.setBreaker(uploader.getBreakerOpenCount(), uploader.getBreakerState());
     }
 
     private void maybeSleep() {
@@ -383,14 +607,19 @@ public class ImporterWrapper implements AnnotatedConfigurable<SensorThingsServic
     private class ValidatorRunner implements Runnable {
 
         private final Calendar start;
-        private final BlockingQueue<ObservationList> queuePerDs;
+        private final BlockingQueue<ObservationList> partition;
         private final AtomicBoolean idle = new AtomicBoolean(true);
         private boolean workDone = false;
         private Thread currentThread;
 
-        public ValidatorRunner(BlockingQueue<ObservationList> queuePerDs, Calendar start) {
-            this.queuePerDs = queuePerDs;
+        /**
+         * @param start The start time of the import.
+         * @param partition The queue of this validator, or null to take work
+         * from the shared scheduler.
+         */
+        public ValidatorRunner(Calendar start, BlockingQueue<ObservationList> partition) {
             this.start = start;
+            this.partition = partition;
         }
 
         public void finishWork() {
@@ -415,38 +644,102 @@ public class ImporterWrapper implements AnnotatedConfigurable<SensorThingsServic
         @Override
         public void run() {
             currentThread = Thread.currentThread();
+            if (partition != null) {
+                runPartition();
+                return;
+            }
+            while (!workDone) {
+                try {
+                    scheduler.runNext(1, TimeUnit.MINUTES, this::workOnList);
+                } catch (InterruptedException ex) {
+                    // Rude wakeup.
+                }
+                try {
+                    // Keep working untill no Datastream is ready, avoid setting idle
+                    while (scheduler.runNext(0, TimeUnit.MILLISECONDS, this::workOnList)) {
+                        // Work is done in workOnList.
+                    }
+                } catch (InterruptedException ex) {
+                    // Rude wakeup.
+                }
+                finaliseSending();
+                markIdle();
+            }
+            uploader.discardUnsent();
+        }
+
+        private void runPartition() {
             ObservationList list = null;
             while (!workDone) {
                 try {
-                    list = queuePerDs.poll(1, TimeUnit.MINUTES);
+                    list = partition.poll(1, TimeUnit.MINUTES);
                 } catch (InterruptedException ex) {
                     // Rude wakeup.
                 }
-                idle.set(false);
-                logStatus.setActive(active.incrementAndGet());
-                workOnList(list);
+                workOnPartitionList(list);
                 // Keep working untill queue empty, avoid setting idle
-                while ((list = queuePerDs.poll()) != null) {
-                    workOnList(list);
+                while ((list = partition.poll()) != null) {
+                    workOnPartitionList(list);
                 }
                 finaliseSending();
+                markIdle();
+            }
+            uploader.discardUnsent();
+        }
+
+        /**
+         * Marks this validator as busy, before it takes on work. It only
+         * becomes idle again after it sent its batch.
+         */
+        private void markBusy() {
+            if (idle.getAndSet(false)) {
+                logStatus.setActive(active.incrementAndGet());
+            }
+        }
+
+        private void markIdle() {
+            if (!idle.getAndSet(true)) {
                 logStatus.setActive(active.decrementAndGet());
-                idle.set(true);
             }
         }
 
-        private void workOnList(ObservationList observations) {
+        private void workOnPartitionList(ObservationList observations) {
             if (observations == null) {
                 return;
             }
-            logStatus.setQueuedCount(queued.decrementAndGet());
-            validateAndSend(observations.observations, start);
-            activeDatastreams.remove(observations.ds);
-            queueLock.lock();
+            markBusy();
+            if (uploader.isActive(observations.ds)) {
+                // Only this thread works on the Datastream, so its unsent
+                // Observations are either in our own batch, or in transit.
+                finaliseSending();
+                try {
+                    awaitUploaded(observations.ds);
+                } catch (InterruptedException ex) {
+                    LOGGER.info("Rude wakeup.", ex);
+                }
+            }
+            workOnList(observations.ds, observations);
+            partitionQueued.decrementAndGet();
+        }
+
+        private void workOnList(Entity ds, ObservationList observations) {
+            markBusy();
+            updateQueuedStatus();
+            try {
+                // Pause while the server is down, instead of failing every Observation.
+                uploader.awaitServerAvailable();
+            } catch (InterruptedException ex) {
+                LOGGER.info("Rude wakeup.", ex);
+            }
+            if (validationPermits == null) {
+                validateAndSend(observations, start);
+                return;
+            }
+            validationPermits.acquireUninterruptibly();
             try {
-                cWorkDone.signalAll();
+                validateAndSend(observations, start);
             } finally {
-                queueLock.unlock();
+                validationPermits.release();
             }
         }
 
@@ -456,14 +749,29 @@ public class ImporterWrapper implements AnnotatedConfigurable<SensorThingsServic
 
         public final Entity ds;
         public final List<Observation> observations;
+        /**
+         * The memory reserved for each Observation.
+         */
+        private long[] sizes = new long[0];
 
         public ObservationList(Entity ds) {
             this.ds = ds;
             this.observations = new ArrayList<>();
         }
 
-        public void add(Observation o) {
+        public void add(Observation o, long size) {
+            final int idx = observations.size();
             observations.add(o);
+            if (size > 0 || sizes.length > 0) {
+                if (idx >= sizes.length) {
+                    sizes = Arrays.copyOf(sizes, Math.max(16, idx * 2));
+                }
+                sizes[idx] = size;
+            }
+        }
+
+        public long getSize(int idx) {
+            return idx < sizes.length ? sizes[idx] : 0;
         }
 
     }
@@ -483,15 +791,17 @@ public class ImporterWrapper implements AnnotatedConfigurable<SensorThingsServic
 
     private static class LoggingStatus extends ChangingStatusLogger.ChangingStatusDefault {
 
-        public static final String MESSAGE = "{}: Rd {}, Vld {}, New {}, Updt {}, Dlt {}, Queue {}, Thrds {}, - {}/s, Err {}";
+        public static final String MESSAGE = "{}: Rd {}, Vld {}, New {}, Updt {}, Dlt {}, Queue {}, Thrds {}, - {}/s, Err {}, Rtry {}, Bkoff {}s, Brkr {}/{}, Mem {}MB, Vldtrs [{}]";
         public final Object[] status;
 
         public LoggingStatus() {
-            super(MESSAGE, new Object[10]);
+            super(MESSAGE, new Object[16]);
             status = getCurrentParams();
             Arrays.setAll(status, (int i) -> Long.valueOf(0));
             status[0] = "unnamed";
             status[8] = "0.0";
+            status[13] = CircuitBreaker.State.CLOSED;
+            status[15] = "";
         }
 
         public LoggingStatus setName(String name) {
@@ -544,5 +854,31 @@ public class ImporterWrapper implements AnnotatedConfigurable<SensorThingsServic
             return this;
         }
 
+        public LoggingStatus setRetries(Long count) {
+            status[10] = count;
+            return this;
+        }
+
+        public LoggingStatus setBackoffSeconds(Long seconds) {
+            status[11] = seconds;
+            return this;
+        }
+
+        public LoggingStatus setMemory(Long megaBytes) {
+            status[14] = megaBytes;
+            return this;
+        }
+
+        public LoggingStatus setValidatorStats(String stats) {
+            status[15] = stats;
+            return this;
+        }
+
+        public LoggingStatus setBreaker(Long openCount, CircuitBreaker.State state) {
+            status[12] = openCount;
+            status[13] = state;
+            return this;
+        }
+
     }
 }
@@ -17,6 +17,11 @@
  */
 package de.fraunhofer.iosb.ilt.sensorthingsimporter;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.gson.JsonElement;
 import de.fraunhofer.iosb.ilt.configurable.AnnotatedConfigurable;
 import de.fraunhofer.iosb.ilt.configurable.ConfigEditor;
@@ -28,17 +33,35 @@ import de.fraunhofer.iosb.ilt.configurable.editor.EditorInt;
 import de.fraunhofer.iosb.ilt.configurable.editor.EditorString;
 import de.fraunhofer.iosb.ilt.configurable.editor.EditorSubclass;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.auth.AuthMethod;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.AdaptiveBatchSize;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.CircuitBreaker;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.DataArraySpool;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.FrostUtils;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.JsonBatch;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.MemoryBudget;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.RetryPolicy;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.VirtualThreads;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.WatermarkStore;
 import de.fraunhofer.iosb.ilt.sta.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.sta.StatusCodeException;
+import de.fraunhofer.iosb.ilt.sta.Utils;
+import de.fraunhofer.iosb.ilt.sta.jackson.ObjectMapperFactory;
 import de.fraunhofer.iosb.ilt.sta.model.Datastream;
 import de.fraunhofer.iosb.ilt.sta.model.Entity;
 import de.fraunhofer.iosb.ilt.sta.model.MultiDatastream;
 import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import de.fraunhofer.iosb.ilt.sta.model.TimeObject;
 import de.fraunhofer.iosb.ilt.sta.model.ext.DataArrayDocument;
 import de.fraunhofer.iosb.ilt.sta.model.ext.DataArrayValue;
 import de.fraunhofer.iosb.ilt.sta.service.SensorThingsService;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -46,8 +69,20 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -62,6 +97,9 @@ public class ObservationUploader implements AnnotatedConfigurable<SensorThingsSe
      * The logger for this class.
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(ObservationUploader.class);
+    private static final TypeReference<List<String>> TYPE_LIST_STRING = new TypeReference<List<String>>() {
+        // Empty by design.
+    };
 
     @ConfigurableField(editor = EditorString.class,
             label = "Service URL", description = "The url of the server to import into.")
@@ -88,8 +126,113 @@ public class ObservationUploader implements AnnotatedConfigurable<SensorThingsSe
     @EditorInt.EdOptsInt(dflt = 1_000, min = 0, max = Integer.MAX_VALUE, step = 1)
     private int maxBatch;
 
+    @ConfigurableField(editor = EditorInt.class, optional = true,
+            label = "Max Batch Size", description = "The maximum estimated size (kB) of the Observations in a batch. 0 for no limit.")
+    @EditorInt.EdOptsInt(dflt = 0, min = 0, max = Integer.MAX_VALUE, step = 1)
+    private int maxBatchKb;
+
+    @ConfigurableField(editor = EditorBoolean.class, optional = true,
+            label = "Adaptive Batch",
+            description = "Grow or shrink the batch size, based on how long the server takes to process a batch. "
+                    + "Max Batch is used as initial size.")
+    @EditorBoolean.EdOptsBool()
+    private boolean adaptiveBatch;
+
+    @ConfigurableField(editor = EditorInt.class, optional = true,
+            label = "Min Adaptive Batch", description = "The minimum batch size when using adaptive batch sizes.")
+    @EditorInt.EdOptsInt(dflt = 100, min = 1, max = Integer.MAX_VALUE, step = 1)
+    private int minAdaptiveBatch;
+
+    @ConfigurableField(editor = EditorInt.class, optional = true,
+            label = "Max Adaptive Batch", description = "The maximum batch size when using adaptive batch sizes.")
+    @EditorInt.EdOptsInt(dflt = 20_000, min = 1, max = Integer.MAX_VALUE, step = 1)
+    private int maxAdaptiveBatch;
+
+    @ConfigurableField(editor = EditorInt.class, optional = true,
+            label = "Target Request Time", description = "The time (ms) a batch request should take, when using adaptive batch sizes.")
+    @EditorInt.EdOptsInt(dflt = 2_000, min = 1, max = Integer.MAX_VALUE, step = 100)
+    private int targetRequestMs;
+
+    @ConfigurableField(editor = EditorBoolean.class, optional = true,
+            label = "Async Upload",
+            description = "Post full DataArray batches from dedicated sender threads, so validation can continue while a batch is in transit.")
+    @EditorBoolean.EdOptsBool()
+    private boolean asyncUpload;
+
+    @ConfigurableField(editor = EditorInt.class, optional = true,
+            label = "Max In-Flight", description = "The maximum number of DataArray batches that can be queued or in transit at the same time, when using async upload.")
+    @EditorInt.EdOptsInt(dflt = 4, min = 1, max = 1000, step = 1)
+    private int maxInFlight;
+
+    @ConfigurableField(editor = EditorInt.class, optional = true,
+            label = "Sender Threads", description = "The number of Threads that post DataArray batches, when using async upload.")
+    @EditorInt.EdOptsInt(dflt = 2, min = 1, max = 100, step = 1)
+    private int senderThreads;
+
+    @ConfigurableField(editor = EditorString.class, optional = true,
+            label = "Spool Directory",
+            description = "Directory to store DataArray batches in that could not be sent. "
+                    + "Spooled batches are sent before new data on the next run. Leave empty to disable.")
+    @EditorString.EdOptsString(dflt = "")
+    private String spoolDirectory;
+
+    @ConfigurableField(editor = EditorInt.class, optional = true,
+            label = "Spool Segment Size", description = "The size (MB) after which a new spool file is started.")
+    @EditorInt.EdOptsInt(dflt = 64, min = 1, max = 4096, step = 1)
+    private int spoolSegmentMb;
+
+    @ConfigurableField(editor = EditorInt.class, optional = true,
+            label = "Spool Max Attempts", description = "The number of times the server may reject spooled Observations before they are dropped.")
+    @EditorInt.EdOptsInt(dflt = 5, min = 1, max = 1000, step = 1)
+    private int spoolMaxAttempts;
+
+    @ConfigurableField(editor = EditorInt.class, optional = true,
+            label = "Spool Replay Interval", description = "The interval (s) in which the spool is replayed during an import. 0 to only replay at the start.")
+    @EditorInt.EdOptsInt(dflt = 0, min = 0, max = Integer.MAX_VALUE, step = 1)
+    private int spoolReplaySeconds;
+
+    @ConfigurableField(editor = EditorBoolean.class, optional = true,
+            label = "Batch Changes",
+            description = "Send updates and deletes of Observations in JSON $batch requests, instead of one request per Observation.")
+    @EditorBoolean.EdOptsBool()
+    private boolean batchChanges;
+
+    @ConfigurableField(editor = EditorInt.class, optional = true,
+            label = "Change Batch Size", description = "The maximum number of updates or deletes to send in one $batch request.")
+    @EditorInt.EdOptsInt(dflt = 200, min = 1, max = 10_000, step = 1)
+    private int changeBatchSize;
+
+    @ConfigurableField(editor = EditorInt.class, optional = true,
+            label = "Max Retries", description = "The number of times a request that failed with a server error, 429 or connection problem is retried.")
+    @EditorInt.EdOptsInt(dflt = 3, min = 0, max = 100, step = 1)
+    private int maxRetries;
+
+    @ConfigurableField(editor = EditorInt.class, optional = true,
+            label = "Retry Delay", description = "The delay (ms) before the first retry. Doubles with each retry.")
+    @EditorInt.EdOptsInt(dflt = 500, min = 1, max = Integer.MAX_VALUE, step = 100)
+    private int retryDelayMs;
+
+    @ConfigurableField(editor = EditorInt.class, optional = true,
+            label = "Max Retry Delay", description = "The maximum delay (ms) before a retry.")
+    @EditorInt.EdOptsInt(dflt = 30_000, min = 1, max = Integer.MAX_VALUE, step = 1000)
+    private int maxRetryDelayMs;
+
+    @ConfigurableField(editor = EditorInt.class, optional = true,
+            label = "Breaker Threshold",
+            description = "The number of consecutive failed requests after which all uploads and validator threads pause. 0 to disable.")
+    @EditorInt.EdOptsInt(dflt = 5, min = 0, max = Integer.MAX_VALUE, step = 1)
+    private int breakerThreshold;
+
+    @ConfigurableField(editor = EditorInt.class, optional = true,
+            label = "Breaker Pause", description = "The time (s) to pause before probing the server again, after too many failures.")
+    @EditorInt.EdOptsInt(dflt = 30, min = 1, max = Integer.MAX_VALUE, step = 1)
+    private int breakerOpenSeconds;
+
     private SensorThingsService service;
     private boolean noAct = false;
+    private boolean virtualThreads = false;
+    private MemoryBudget memoryBudget;
+    private WatermarkStore watermarkStore;
 
     private final ThreadLocal<Map<Entity, DataArrayValue>> davMaps = new ThreadLocal<>() {
         @Override
@@ -97,12 +240,51 @@ public class ObservationUploader implements AnnotatedConfigurable<SensorThingsSe
             return new HashMap<>();
         }
     };
-    private final Set<Entity> activeDatastreams = new ConcurrentSkipListSet<>(new EntityComparator());
+    /**
+     * The memory reserved for the Observations in the DataArray batch of each
+     * thread, and their estimated size when Max Batch Size is set.
+     */
+    private final ThreadLocal<long[]> batchBytes = new ThreadLocal<>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[2];
+        }
+    };
+    /**
+     * The latest phenomenonTime (start, end) per (Multi)Datastream in the
+     * DataArray batch of each thread, when a watermark store is set.
+     */
+    private final ThreadLocal<Map<String, Instant[]>> batchWatermarks = new ThreadLocal<>() {
+        @Override
+        protected Map<String, Instant[]> initialValue() {
+            return new HashMap<>();
+        }
+    };
+    private final ThreadLocal<List<JsonBatch.Change>> pendingChanges = new ThreadLocal<>() {
+        @Override
+        protected List<JsonBatch.Change> initialValue() {
+            return new ArrayList<>();
+        }
+    };
+    /**
+     * The number of DataArray batches, either being filled or in transit, that
+     * hold Observations for each (Multi)Datastream.
+     */
+    private final ConcurrentNavigableMap<Entity, Integer> activeDatastreams = new ConcurrentSkipListMap<>(new EntityComparator());
+
+    private ExecutorService senders;
+    private Semaphore inFlight;
+    private Consumer<Entity> uploadDoneListener = ds -> {};
+    private AdaptiveBatchSize batchSizer;
+    private DataArraySpool spool;
+    private ScheduledExecutorService spoolReplayer;
+    private RetryPolicy retryPolicy;
 
     private final AtomicLong inserted = new AtomicLong();
     private final AtomicLong updated = new AtomicLong();
     private final AtomicLong deleted = new AtomicLong();
     private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
 
     @Override
     public void configure(JsonElement config, SensorThingsService context, Object edtCtx, ConfigEditor<?> configEditor) throws ConfigurationException {
@@ -117,12 +299,72 @@ public class ObservationUploader implements AnnotatedConfigurable<SensorThingsSe
         } catch (MalformedURLException ex) {
             throw new IllegalArgumentException("Failed to create service.", ex);
         }
+        retryPolicy = new RetryPolicy(maxRetries, retryDelayMs, maxRetryDelayMs, new CircuitBreaker(breakerThreshold, breakerOpenSeconds * 1000L));
+        if (asyncUpload) {
+            inFlight = new Semaphore(maxInFlight);
+        }
+        if (adaptiveBatch) {
+            batchSizer = new AdaptiveBatchSize(minAdaptiveBatch, maxAdaptiveBatch, maxBatch, targetRequestMs, maxBatchKb * 1024L);
+        }
+        if (!Utils.isNullOrEmpty(spoolDirectory)) {
+            try {
+                spool = new DataArraySpool(Paths.get(spoolDirectory), spoolSegmentMb * 1024L * 1024L, spoolMaxAttempts);
+            } catch (IOException ex) {
+                throw new ConfigurationException("Failed to open spool directory " + spoolDirectory, ex);
+            }
+        }
     }
 
     public void setNoAct(boolean noAct) {
         this.noAct = noAct;
     }
 
+    /**
+     * Use virtual threads for async uploads. The number of concurrent uploads
+     * is then only limited by the Max In-Flight setting.
+     *
+     * @param virtualThreads true to use virtual threads.
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Set the budget that memory reserved for Observations is released to,
+     * once the Observations are sent.
+     *
+     * @param memoryBudget The budget, or null.
+     */
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Set the store that is updated with the latest phenomenonTime of each
+     * (Multi)Datastream, after its Observations are uploaded.
+     *
+     * @param watermarkStore The store, or null.
+     */
+    public void setWatermarkStore(WatermarkStore watermarkStore) {
+        this.watermarkStore = watermarkStore;
+    }
+
+    private void releaseMemory(long bytes) {
+        if (memoryBudget != null) {
+            memoryBudget.release(bytes);
+        }
+    }
+
+    /**
+     * Set the listener that is notified each time a (Multi)Datastream is no
+     * longer active, because all batches holding its Observations are sent.
+     *
+     * @param uploadDoneListener The listener to notify.
+     */
+    public void setUploadDoneListener(Consumer<Entity> uploadDoneListener) {
+        this.uploadDoneListener = uploadDoneListener;
+    }
+
     public long getInserted() {
         return inserted.get();
     }
@@ -135,19 +377,155 @@ public class ObservationUploader implements AnnotatedConfigurable<SensorThingsSe
         return deleted.get();
     }
 
+    /**
+     * @return The number of Observations and changes that were dropped
+     * because they could not be sent.
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return The total number of retried requests.
+     */
+    public long getRetries() {
+        return retryPolicy.getRetries();
+    }
+
+    /**
+     * @return The total time, in ms, spent waiting before retries.
+     */
+    public long getBackoffMillis() {
+        return retryPolicy.getBackoffMillis();
+    }
+
+    /**
+     * @return The number of times the circuit breaker opened.
+     */
+    public long getBreakerOpenCount() {
+        return retryPolicy.getBreaker().getOpenCount();
+    }
+
+    public CircuitBreaker.State getBreakerState() {
+        return retryPolicy.getBreaker().getState();
+    }
+
+    /**
+     * Blocks while the server is considered down, after too many consecutive
+     * failed requests.
+     *
+     * @throws InterruptedException If the thread is interrupted while
+     * waiting.
+     */
+    public void awaitServerAvailable() throws InterruptedException {
+        retryPolicy.getBreaker().awaitNotOpen();
+    }
+
+    /**
+     * @return The number of Observations that trigger sending a DataArray
+     * batch.
+     */
+    public int getBatchSize() {
+        if (batchSizer == null) {
+            return maxBatch;
+        }
+        return batchSizer.getBatchSize();
+    }
+
     public void addObservation(Observation obs) throws ServiceFailureException {
-        if (obs.getId() != null && !noAct) {
-            service.update(obs);
-            updated.incrementAndGet();
-        } else if (!useDataArrays && !noAct) {
-            service.create(obs);
-            inserted.incrementAndGet();
-        } else if (useDataArrays) {
-            addToDataArray(obs);
+        addObservation(obs, 0);
+    }
+
+    /**
+     * Add an Observation, for which memory was reserved in the memory budget.
+     * The memory is released when the Observation is sent, or when adding it
+     * fails.
+     *
+     * @param obs The Observation to add.
+     * @param reservedBytes The memory reserved for the Observation.
+     * @throws ServiceFailureException If sending failed.
+     */
+    public void addObservation(Observation obs, long reservedBytes) throws ServiceFailureException {
+        boolean held = false;
+        try {
+            if (obs.getId() != null && !noAct && batchChanges) {
+                queueChange(JsonBatch.Change.update(obs));
+            } else if (obs.getId() != null && !noAct) {
+                retryPolicy.execute(() -> {
+                    service.update(obs);
+                    return null;
+                });
+                updated.incrementAndGet();
+            } else if (!useDataArrays && !noAct) {
+                retryPolicy.execute(() -> {
+                    service.create(obs);
+                    return null;
+                });
+                inserted.incrementAndGet();
+            } else if (useDataArrays) {
+                final long newQueue = addToDataArray(obs, reservedBytes);
+                held = true;
+                if (newQueue >= getBatchSize() || maxBatchKb > 0 && batchBytes.get()[1] >= maxBatchKb * 1024L) {
+                    sendDataArray();
+                }
+            }
+        } finally {
+            if (!held) {
+                releaseMemory(reservedBytes);
+            }
+        }
+    }
+
+    private void queueChange(JsonBatch.Change change) throws ServiceFailureException {
+        final List<JsonBatch.Change> changes = pendingChanges.get();
+        changes.add(change);
+        if (changes.size() >= changeBatchSize) {
+            sendChanges();
+        }
+    }
+
+    /**
+     * Send the updates that were queued by the current Thread. Changes are
+     * only removed from the queue once they are sent. If sending fails with
+     * an error that may pass, the unsent changes stay queued and are sent
+     * with the next batch.
+     *
+     * @throws ServiceFailureException If the batch request failed.
+     */
+    public void sendChanges() throws ServiceFailureException {
+        final List<JsonBatch.Change> changes = pendingChanges.get();
+        while (!changes.isEmpty()) {
+            final List<JsonBatch.Change> toSend = changes.subList(0, Math.min(changes.size(), changeBatchSize));
+            try {
+                sendChangeBatch(new ArrayList<>(toSend));
+            } catch (ServiceFailureException | RuntimeException exc) {
+                if (exc instanceof ServiceFailureException && RetryPolicy.isRetryable((ServiceFailureException) exc)) {
+                    LOGGER.warn("Failed to send changes, keeping {} changes for the next batch.", changes.size());
+                } else {
+                    LOGGER.error("Failed to send changes, dropping {} changes.", toSend.size());
+                    toSend.clear();
+                }
+                throw exc;
+            }
+            toSend.clear();
+        }
+    }
+
+    private void sendChangeBatch(List<JsonBatch.Change> changes) throws ServiceFailureException {
+        final boolean[] accepted = retryPolicy.execute(() -> JsonBatch.send(service, changes));
+        for (int i = 0; i < accepted.length; i++) {
+            if (!accepted[i]) {
+                continue;
+            }
+            if (changes.get(i).getMethod() == JsonBatch.Method.DELETE) {
+                deleted.incrementAndGet();
+            } else {
+                updated.incrementAndGet();
+            }
         }
     }
 
-    private void addToDataArray(Observation o) throws ServiceFailureException {
+    private long addToDataArray(Observation o, long reservedBytes) throws ServiceFailureException {
         Entity ds = o.getDatastream();
         if (ds == null) {
             ds = o.getMultiDatastream();
@@ -157,10 +535,37 @@ public class ObservationUploader implements AnnotatedConfigurable<SensorThingsSe
         }
         findDataArrayValue(ds, o)
                 .addObservation(o);
-        long newqueue = queued.incrementAndGet();
-        if (newqueue >= maxBatch) {
-            sendDataArray();
+        final long[] threadBytes = batchBytes.get();
+        threadBytes[0] += reservedBytes;
+        if (maxBatchKb > 0) {
+            threadBytes[1] += reservedBytes > 0 ? reservedBytes : MemoryBudget.estimateSize(o);
+        }
+        if (watermarkStore != null) {
+            trackWatermark(ds, o.getPhenomenonTime());
+        }
+        return queued.incrementAndGet();
+    }
+
+    private void trackWatermark(Entity ds, TimeObject phenTime) {
+        if (phenTime == null) {
+            return;
+        }
+        final Instant start = FrostUtils.instantFrom(phenTime);
+        final Instant end = phenTime.isInterval() ? phenTime.getAsInterval().getEnd() : start;
+        final Instant[] latest = batchWatermarks.get().computeIfAbsent(WatermarkStore.keyFor(ds), k -> new Instant[]{start, end});
+        if (latest[0].isBefore(start)) {
+            latest[0] = start;
+            latest[1] = end;
+        }
+    }
+
+    private Map<String, Instant[]> takeWatermarks() {
+        final Map<String, Instant[]> watermarks = batchWatermarks.get();
+        if (watermarks.isEmpty()) {
+            return null;
         }
+        batchWatermarks.set(new HashMap<>());
+        return watermarks;
     }
 
     private DataArrayValue findDataArrayValue(Entity ds, Observation o) {
@@ -169,41 +574,398 @@ public class ObservationUploader implements AnnotatedConfigurable<SensorThingsSe
         if (dav == null) {
             if (ds instanceof Datastream) {
                 dav = new DataArrayValue((Datastream) ds, getDefinedProperties(o));
-                activeDatastreams.add(ds);
             } else {
                 dav = new DataArrayValue((MultiDatastream) ds, getDefinedProperties(o));
-                activeDatastreams.add(ds);
             }
+            activeDatastreams.merge(ds, 1, Integer::sum);
             davMap.put(ds, dav);
         }
         return dav;
     }
 
+    /**
+     * Send the DataArray batch and the changes that were queued by the
+     * current Thread. The batch is sent, or spooled, even if sending the
+     * changes fails.
+     *
+     * @return The total number of inserted Observations.
+     * @throws ServiceFailureException If sending the batch or the changes
+     * failed.
+     */
     public long sendDataArray() throws ServiceFailureException {
-        final Map<Entity, DataArrayValue> davMap = davMaps.get();
-        Set<Entity> sentDatastreams = davMap.keySet();
-        if (!noAct && !davMap.isEmpty()) {
-            DataArrayDocument dad = new DataArrayDocument();
-            dad.getValue().addAll(davMap.values());
-            List<String> locations = service.create(dad);
-            long error = locations.stream().filter(
-                    location -> location.startsWith("error")).count();
-            if (error > 0) {
-                Optional<String> first = locations.stream().filter(location -> location.startsWith("error")).findFirst();
-                LOGGER.warn("Failed to insert {} Observations. First error: {}", error, first);
+        try {
+            sendQueuedDataArray();
+        } catch (ServiceFailureException exc) {
+            try {
+                sendChanges();
+            } catch (ServiceFailureException changeExc) {
+                exc.addSuppressed(changeExc);
             }
-            long nonError = locations.size() - error;
-            inserted.addAndGet(nonError);
+            throw exc;
+        }
+        sendChanges();
+        return inserted.get();
+    }
+
+    private void sendQueuedDataArray() throws ServiceFailureException {
+        final Map<Entity, DataArrayValue> davMap = davMaps.get();
+        if (davMap.isEmpty()) {
+            queued.set(0);
+            return;
         }
+        final List<Entity> sentDatastreams = new ArrayList<>(davMap.keySet());
+        final DataArrayDocument dad = new DataArrayDocument();
+        dad.getValue().addAll(davMap.values());
         queued.set(0);
-        if (!sentDatastreams.isEmpty() && !activeDatastreams.removeAll(sentDatastreams)) {
-            LOGGER.error("Datastream not registered!");
+        final long[] threadBytes = batchBytes.get();
+        final long payload = threadBytes[1];
+        if (!noAct && !asyncUpload) {
+            // The batch is only cleared once it is sent or spooled. If this
+            // fails, it goes out with the next flush.
+            final Map<String, Instant[]> watermarks = batchWatermarks.get();
+            postDataArray(dad, watermarks.isEmpty() ? null : watermarks, payload);
         }
         davMap.clear();
-        return inserted.get();
+        final long bytes = threadBytes[0];
+        threadBytes[0] = 0;
+        threadBytes[1] = 0;
+        final Map<String, Instant[]> watermarks = takeWatermarks();
+        if (asyncUpload && !noAct) {
+            sendDataArrayAsync(dad, sentDatastreams, bytes, payload, watermarks);
+        } else {
+            releaseDatastreams(sentDatastreams);
+            releaseMemory(bytes);
+        }
+    }
+
+    /**
+     * Drop what the current Thread still holds after its last
+     * {@link #sendDataArray()}, because sending it failed. Call this before
+     * the Thread ends, since its queues are lost with it. Dropped items are
+     * logged and counted as failed.
+     */
+    public void discardUnsent() {
+        final List<JsonBatch.Change> changes = pendingChanges.get();
+        if (!changes.isEmpty()) {
+            LOGGER.error("Dropping {} changes that could not be sent.", changes.size());
+            failed.addAndGet(changes.size());
+            changes.clear();
+        }
+        final Map<Entity, DataArrayValue> davMap = davMaps.get();
+        if (!davMap.isEmpty()) {
+            final long count = countObservations(davMap.values());
+            LOGGER.error("Dropping {} Observations that could not be sent.", count);
+            failed.addAndGet(count);
+            final List<Entity> dropped = new ArrayList<>(davMap.keySet());
+            davMap.clear();
+            final long[] threadBytes = batchBytes.get();
+            final long bytes = threadBytes[0];
+            threadBytes[0] = 0;
+            threadBytes[1] = 0;
+            takeWatermarks();
+            releaseDatastreams(dropped);
+            releaseMemory(bytes);
+        }
+    }
+
+    private static long countObservations(Collection<DataArrayValue> values) {
+        long count = 0;
+        for (DataArrayValue dav : values) {
+            count += dav.getDataArray().size();
+        }
+        return count;
+    }
+
+    private void countDropped(DataArrayDocument dad) {
+        final long count = dad.getObservationCount();
+        LOGGER.error("Dropped {} Observations that could not be sent.", count);
+        failed.addAndGet(count);
+    }
+
+    private void sendDataArrayAsync(DataArrayDocument dad, List<Entity> sentDatastreams, long bytes, long payload, Map<String, Instant[]> watermarks) {
+        inFlight.acquireUninterruptibly();
+        try {
+            getSenders().submit(() -> {
+                try {
+                    postDataArray(dad, watermarks, payload);
+                } catch (StatusCodeException exc) {
+                    LOGGER.error("URL: {}", exc.getUrl());
+                    LOGGER.error("Code: {} {}", exc.getStatusCode(), exc.getStatusMessage());
+                    LOGGER.error("Data: {}", exc.getReturnedContent());
+                    LOGGER.debug("Failed to upload.", exc);
+                    countDropped(dad);
+                } catch (ServiceFailureException | RuntimeException exc) {
+                    LOGGER.error("Failed to upload: {}", exc.getMessage());
+                    LOGGER.debug("Details:", exc);
+                    countDropped(dad);
+                } finally {
+                    releaseDatastreams(sentDatastreams);
+                    releaseMemory(bytes);
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException exc) {
+            releaseDatastreams(sentDatastreams);
+            releaseMemory(bytes);
+            inFlight.release();
+            throw exc;
+        }
+    }
+
+    private void postDataArray(DataArrayDocument dad, Map<String, Instant[]> watermarks, long payload) throws ServiceFailureException {
+        // Only the last, successful attempt counts, not failed attempts and backoff.
+        final long[] attemptStart = new long[1];
+        List<String> locations;
+        try {
+            locations = retryPolicy.execute(() -> {
+                attemptStart[0] = System.currentTimeMillis();
+                return service.create(dad);
+            });
+        } catch (ServiceFailureException | RuntimeException exc) {
+            // Once per batch, retries of the same batch do not shrink it further.
+            if (batchSizer != null) {
+                batchSizer.registerFailure();
+            }
+            if (spool != null && exc instanceof ServiceFailureException && RetryPolicy.isRetryable((ServiceFailureException) exc)) {
+                // Batches the server rejects outright would only block the spool.
+                spoolBatch(dad, (ServiceFailureException) exc);
+                return;
+            }
+            throw exc;
+        }
+        long error = locations.stream().filter(
+                location -> location.startsWith("error")).count();
+        if (error > 0) {
+            Optional<String> first = locations.stream().filter(location -> location.startsWith("error")).findFirst();
+            LOGGER.warn("Failed to insert {} Observations. First error: {}", error, first);
+            if (spool != null) {
+                spoolRejected(dad, locations);
+            }
+        }
+        long nonError = locations.size() - error;
+        inserted.addAndGet(nonError);
+        if (error == 0 && watermarks != null) {
+            // Only a batch that was fully accepted moves the watermarks.
+            for (Map.Entry<String, Instant[]> entry : watermarks.entrySet()) {
+                watermarkStore.advance(entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+            }
+        }
+        if (batchSizer != null) {
+            batchSizer.registerRequest(locations.size(), (int) error, System.currentTimeMillis() - attemptStart[0], payload);
+        }
+    }
+
+    private void spoolBatch(DataArrayDocument dad, ServiceFailureException cause) throws ServiceFailureException {
+        try {
+            spool.append(ObjectMapperFactory.get().writeValueAsString(dad.getValue()), 0);
+            LOGGER.warn("Failed to upload, batch spooled for later: {}", cause.getMessage());
+            LOGGER.debug("Details:", cause);
+        } catch (IOException exc) {
+            LOGGER.error("Failed to spool batch: {}", exc.getMessage());
+            throw cause;
+        }
+    }
+
+    private void spoolRejected(DataArrayDocument dad, List<String> locations) {
+        try {
+            final ObjectMapper mapper = ObjectMapperFactory.get();
+            final String rejected = filterRejected(mapper, mapper.valueToTree(dad.getValue()), locations);
+            if (rejected != null) {
+                spool.append(rejected, 1);
+            }
+        } catch (IOException | RuntimeException exc) {
+            LOGGER.error("Failed to spool rejected Observations: {}", exc.getMessage());
+            LOGGER.debug("Details:", exc);
+        }
+    }
+
+    /**
+     * Sends a batch from the spool, with the same request FROST-Client uses
+     * for a DataArrayDocument.
+     *
+     * @param batch The serialised list of DataArray values.
+     * @return The serialised Observations the server rejected, or null. If
+     * the server rejects the entire request, the entire batch.
+     * @throws IOException If the server could not be reached, or returned a
+     * failure status that may succeed on a later try.
+     */
+    private String sendSpooledBatch(String batch) throws IOException {
+        final HttpPost post = new HttpPost(service.getFullPath("CreateObservations").toString());
+        post.setEntity(new StringEntity(batch, ContentType.APPLICATION_JSON));
+        try (CloseableHttpResponse response = service.execute(post)) {
+            final int code = response.getStatusLine().getStatusCode();
+            final String content = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+            if (code < 200 || code >= 300) {
+                if (RetryPolicy.isRetryable(code)) {
+                    throw new IOException("Server returned " + code + ": " + Utils.cleanForLogging(content, 200));
+                }
+                LOGGER.warn("Server rejected spooled batch with {}: {}", code, Utils.cleanForLogging(content, 200));
+                return batch;
+            }
+            final ObjectMapper mapper = ObjectMapperFactory.get();
+            final List<String> locations = mapper.readValue(content, TYPE_LIST_STRING);
+            final long error = locations.stream().filter(location -> location.startsWith("error")).count();
+            inserted.addAndGet(locations.size() - error);
+            if (error == 0) {
+                return null;
+            }
+            LOGGER.warn("Server rejected {} spooled Observations.", error);
+            return filterRejected(mapper, mapper.readTree(batch), locations);
+        }
+    }
+
+    /**
+     * Creates a serialised list of DataArray values, containing only the
+     * Observations for which the server returned an error.
+     */
+    private static String filterRejected(ObjectMapper mapper, JsonNode batch, List<String> locations) throws IOException {
+        final ArrayNode result = mapper.createArrayNode();
+        int idx = 0;
+        for (JsonNode dav : batch) {
+            final ArrayNode rejectedRows = mapper.createArrayNode();
+            for (JsonNode row : dav.get("dataArray")) {
+                if (idx < locations.size() && locations.get(idx).startsWith("error")) {
+                    rejectedRows.add(row);
+                }
+                idx++;
+            }
+            if (rejectedRows.size() > 0) {
+                final ObjectNode copy = ((ObjectNode) dav).deepCopy();
+                copy.set("dataArray", rejectedRows);
+                if (copy.has("dataArray@iot.count")) {
+                    copy.put("dataArray@iot.count", rejectedRows.size());
+                }
+                result.add(copy);
+            }
+        }
+        if (result.size() == 0) {
+            return null;
+        }
+        return mapper.writeValueAsString(result);
+    }
+
+    private void releaseDatastreams(List<Entity> sentDatastreams) {
+        for (Entity ds : sentDatastreams) {
+            if (!activeDatastreams.containsKey(ds)) {
+                LOGGER.error("Datastream not registered!");
+                continue;
+            }
+            if (activeDatastreams.computeIfPresent(ds, (k, v) -> v > 1 ? v - 1 : null) == null) {
+                uploadDoneListener.accept(ds);
+            }
+        }
+    }
+
+    private synchronized ExecutorService getSenders() {
+        if (senders == null) {
+            senders = VirtualThreads.newExecutor("Uploader-", virtualThreads, senderThreads);
+        }
+        return senders;
+    }
+
+    /**
+     * Prepare for uploading: replays the spool, if configured, and starts the
+     * Thread that regularly replays the spool during the import.
+     */
+    public void startUploads() {
+        if (spool == null || noAct) {
+            return;
+        }
+        replaySpool();
+        if (spoolReplaySeconds > 0) {
+            spoolReplayer = Executors.newSingleThreadScheduledExecutor();
+            spoolReplayer.scheduleWithFixedDelay(this::replaySpool, spoolReplaySeconds, spoolReplaySeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    private void replaySpool() {
+        if (getBreakerState() != CircuitBreaker.State.CLOSED) {
+            return;
+        }
+        try {
+            int count = spool.replay(this::sendSpooledBatch);
+            if (count > 0) {
+                LOGGER.info("Replayed {} spooled batches.", count);
+            }
+        } catch (IOException | RuntimeException exc) {
+            LOGGER.error("Failed to replay spool: {}", exc.getMessage());
+            LOGGER.debug("Details:", exc);
+        }
+    }
+
+    /**
+     * Finish the upload: stop the spool replay Thread, wait until all DataArray
+     * batches that are in transit have been sent and stop the sender Threads,
+     * if async upload is enabled, and save the watermarks. Observations that
+     * are still cached by Threads are not sent, use {@link #sendDataArray()}
+     * on those Threads first.
+     */
+    public void finishUploads() {
+        if (spoolReplayer != null) {
+            spoolReplayer.shutdownNow();
+            spoolReplayer = null;
+        }
+        try {
+            waitForSenders();
+        } finally {
+            saveWatermarks();
+        }
+    }
+
+    private void saveWatermarks() {
+        if (watermarkStore == null) {
+            return;
+        }
+        try {
+            watermarkStore.save();
+        } catch (IOException exc) {
+            LOGGER.error("Failed to save watermarks: {}", exc.getMessage());
+            LOGGER.debug("Details:", exc);
+        }
+    }
+
+    private void waitForSenders() {
+        final ExecutorService toStop;
+        synchronized (this) {
+            toStop = senders;
+            senders = null;
+        }
+        if (toStop == null) {
+            return;
+        }
+        toStop.shutdown();
+        try {
+            while (!toStop.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOGGER.info("Waiting for {} DataArray uploads to finish...", maxInFlight - inFlight.availablePermits());
+            }
+        } catch (InterruptedException ex) {
+            LOGGER.error("Interrupted waiting for DataArray uploads!");
+            Thread.currentThread().interrupt();
+        }
     }
 
     public void delete(List<? extends Entity> entities, int threads) throws ServiceFailureException {
+        if (batchChanges && entities.stream().allMatch(Observation.class::isInstance)) {
+            List<JsonBatch.Change> changes = new ArrayList<>();
+            int sent = 0;
+            try {
+                for (Entity entity : entities) {
+                    changes.add(JsonBatch.Change.delete((Observation) entity));
+                    if (changes.size() >= changeBatchSize) {
+                        sendChangeBatch(changes);
+                        sent += changes.size();
+                        changes = new ArrayList<>();
+                    }
+                }
+                if (!changes.isEmpty()) {
+                    sendChangeBatch(changes);
+                }
+            } catch (ServiceFailureException | RuntimeException exc) {
+                LOGGER.error("Failed to delete, {} of {} Observations not deleted.", entities.size() - sent, entities.size());
+                throw exc;
+            }
+            return;
+        }
         deleted.addAndGet(entities.size());
         new FrostUtils(entities.get(0).getService()).delete(entities, threads);
     }
@@ -214,10 +976,19 @@ public class ObservationUploader implements AnnotatedConfigurable<SensorThingsSe
      *
      * @param entity The Datastream or MultiDatastream to check for.
      * @return true if any Thread currently holds Observations for the given
-     * (Multi)Datastream.
+     * (Multi)Datastream, or if a batch with Observations for the given
+     * (Multi)Datastream is still in transit.
      */
     public boolean isActive(Entity entity) {
-        return activeDatastreams.contains(entity);
+        return activeDatastreams.containsKey(entity);
+    }
+
+    /**
+     * @return true if any Thread holds Observations that are not sent yet, or
+     * if any batch is still in transit.
+     */
+    public boolean hasActiveDatastreams() {
+        return !activeDatastreams.isEmpty();
     }
 
     private Set<DataArrayValue.Property> getDefinedProperties(Observation o) {
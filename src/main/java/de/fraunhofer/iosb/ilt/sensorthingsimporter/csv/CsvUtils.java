@@ -20,8 +20,11 @@ package de.fraunhofer.iosb.ilt.sensorthingsimporter.csv;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.JsonUtils;
 import de.fraunhofer.iosb.ilt.sta.Utils;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.apache.commons.csv.CSVRecord;
@@ -39,42 +42,206 @@ public class CsvUtils {
     private static final Logger LOGGER = LoggerFactory.getLogger(CsvUtils.class.getName());
     private static final Pattern PLACE_HOLDER_PATTERN = Pattern.compile("\\{([^|{}]+)(\\|([^}]+))?\\}");
 
-    public static String fillTemplate(String template, Object source) {
-        return fillTemplate(template, source, false);
+    /**
+     * The maximum number of compiled templates kept per escaping type.
+     */
+    private static final int MAX_CACHED_TEMPLATES = 1000;
+    private static final Map<String, PathTemplate> TEMPLATES = new ConcurrentHashMap<>();
+    private static final Map<String, PathTemplate> TEMPLATES_FOR_URL = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<StringBuilder> BUFFERS = new ThreadLocal<>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder();
+        }
+    };
+
+    /**
+     * A template, parsed into literal parts and placeholders, with the paths
+     * of the placeholders split and decoded up front.
+     */
+    public static class PathTemplate {
+
+        private final String template;
+        private final boolean forUrl;
+        /**
+         * The literal parts, one more than there are placeholders.
+         */
+        private final String[] literals;
+        private final PathPart[][] paths;
+        private final String[] defaults;
+
+        private PathTemplate(String template, boolean forUrl) {
+            this.template = template;
+            this.forUrl = forUrl;
+            List<String> literalList = new ArrayList<>();
+            List<PathPart[]> pathList = new ArrayList<>();
+            List<String> defaultList = new ArrayList<>();
+            Matcher matcher = PLACE_HOLDER_PATTERN.matcher(template);
+            int pos = 0;
+            while (matcher.find()) {
+                literalList.add(template.substring(pos, matcher.start()));
+                String[] parts = StringUtils.split(matcher.group(1), '/');
+                PathPart[] path = new PathPart[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    path[i] = new PathPart(JsonUtils.DecodeJsonPointer(parts[i]));
+                }
+                pathList.add(path);
+                defaultList.add(matcher.group(3));
+                pos = matcher.end();
+            }
+            literalList.add(template.substring(pos));
+            literals = literalList.toArray(String[]::new);
+            paths = pathList.toArray(PathPart[][]::new);
+            defaults = defaultList.toArray(String[]::new);
+        }
+
+        /**
+         * Fill the template with values from the given source.
+         *
+         * @param source The source to take the values from.
+         * @return The filled template, or an empty String if a placeholder
+         * has no value and no default.
+         */
+        public String fill(Object source) {
+            if (source instanceof CSVRecord) {
+                CSVRecord csvRecord = (CSVRecord) source;
+                if (csvRecord.isMapped(template)) {
+                    return csvRecord.get(template);
+                }
+            }
+            if (paths.length == 0) {
+                return template;
+            }
+            StringBuilder result = BUFFERS.get();
+            result.setLength(0);
+            result.append(literals[0]);
+            for (int i = 0; i < paths.length; i++) {
+                final String replaced = findMatch(paths[i], defaults[i], source, forUrl);
+                if (replaced == null) {
+                    // no value and no default: bail!
+                    return "";
+                }
+                result.append(replaced)
+                        .append(literals[i + 1]);
+            }
+            return result.toString();
+        }
     }
 
-    public static String fillTemplate(String template, Object source, boolean forUrl) {
-        if (source instanceof CSVRecord) {
-            CSVRecord csvRecord = (CSVRecord) source;
-            if (csvRecord.isMapped(template)) {
-                return csvRecord.get(template);
+    /**
+     * A getter found on a class, or null if the class has no such getter.
+     */
+    private static class Getter {
+
+        private final Class<?> clazz;
+        private final Method method;
+
+        public Getter(Class<?> clazz, Method method) {
+            this.clazz = clazz;
+            this.method = method;
+        }
+    }
+
+    /**
+     * One step in the path of a placeholder.
+     */
+    private static class PathPart {
+
+        private final String field;
+        private final Integer index;
+        private final String getterName;
+        /**
+         * The getter found for the class of the last non-collection source.
+         */
+        private volatile Getter lastGetter;
+
+        public PathPart(String field) {
+            this.field = field;
+            Integer idx;
+            try {
+                idx = Integer.valueOf(field);
+            } catch (NumberFormatException ex) {
+                idx = null;
+            }
+            this.index = idx;
+            this.getterName = field.isEmpty() ? "get" : "get" + field.substring(0, 1).toUpperCase() + field.substring(1);
+        }
+
+        public Object getFrom(Object source) {
+            if (source instanceof CSVRecord) {
+                CSVRecord csvRecord = (CSVRecord) source;
+                if (csvRecord.isMapped(field)) {
+                    return csvRecord.get(field);
+                }
+                return null;
             }
+            if (source instanceof Map) {
+                Map map = (Map) source;
+                return map.get(field);
+            } else if (source instanceof List) {
+                if (index == null) {
+                    return null;
+                }
+                List list = (List) source;
+                return list.get(index);
+            }
+            Method getter = findGetter(source.getClass());
+            if (getter == null) {
+                LOGGER.trace("No getter {} on {}", getterName, source);
+                return null;
+            }
+            try {
+                return getter.invoke(source);
+            } catch (IllegalAccessException | InvocationTargetException ex) {
+                LOGGER.trace("Failed to execute getter {} on {}", getterName, source, ex);
+                return null;
+            }
+        }
+
+        private Method findGetter(Class<?> clazz) {
+            Getter getter = lastGetter;
+            if (getter == null || getter.clazz != clazz) {
+                getter = new Getter(clazz, MethodUtils.getAccessibleMethod(clazz, getterName));
+                lastGetter = getter;
+            }
+            return getter.method;
         }
-        Matcher matcher = PLACE_HOLDER_PATTERN.matcher(template);
-        matcher.reset();
-        StringBuilder result = new StringBuilder();
-        int pos = 0;
-        while (matcher.find()) {
-            int start = matcher.start();
-            result.append(template.substring(pos, start));
-            final String replaced = findMatch(matcher.group(1), matcher.group(3), source, forUrl);
-            if (replaced == null) {
-                // no value and no default: bail!
-                return "";
+    }
+
+    /**
+     * Returns the compiled version of the given template. Compiled templates
+     * are cached.
+     *
+     * @param template The template, using {path|default} placeholders.
+     * @param forUrl Whether values are escaped for use in urls, or for use in
+     * JSON.
+     * @return The compiled template.
+     */
+    public static PathTemplate compile(String template, boolean forUrl) {
+        final Map<String, PathTemplate> cache = forUrl ? TEMPLATES_FOR_URL : TEMPLATES;
+        PathTemplate compiled = cache.get(template);
+        if (compiled == null) {
+            compiled = new PathTemplate(template, forUrl);
+            if (cache.size() < MAX_CACHED_TEMPLATES) {
+                cache.put(template, compiled);
             }
-            result.append(replaced);
-            pos = matcher.end();
         }
-        result.append(template.substring(pos));
-        return result.toString();
+        return compiled;
+    }
+
+    public static String fillTemplate(String template, Object source) {
+        return fillTemplate(template, source, false);
+    }
+
+    public static String fillTemplate(String template, Object source, boolean forUrl) {
+        return compile(template, forUrl).fill(source);
     }
 
-    private static String findMatch(String path, String deflt, Object source, boolean forUrl) {
-        String[] parts = StringUtils.split(path, '/');
+    private static String findMatch(PathPart[] path, String deflt, Object source, boolean forUrl) {
         Object value = source;
-        for (String part : parts) {
-            part = JsonUtils.DecodeJsonPointer(part);
-            value = getFrom(part, value);
+        for (PathPart part : path) {
+            value = part.getFrom(value);
             if (value == null) {
                 return deflt;
             }
@@ -92,33 +259,4 @@ public class CsvUtils {
         result = StringUtils.replace(result, "\n", "\\n");
         return result;
     }
-
-    private static Object getFrom(String field, Object source) {
-        if (source instanceof CSVRecord) {
-            CSVRecord csvRecord = (CSVRecord) source;
-            if (csvRecord.isMapped(field)) {
-                return csvRecord.get(field);
-            }
-            return null;
-        }
-        if (source instanceof Map) {
-            Map map = (Map) source;
-            return map.get(field);
-        } else if (source instanceof List) {
-            List list = (List) source;
-            try {
-                Integer idx = Integer.valueOf(field);
-                return list.get(idx);
-            } catch (NumberFormatException ex) {
-                return null;
-            }
-        }
-        String getterName = "get" + field.substring(0, 1).toUpperCase() + field.substring(1);
-        try {
-            return MethodUtils.invokeMethod(source, getterName);
-        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException ex) {
-            LOGGER.trace("Failed to execute getter {} on {}", getterName, source, ex);
-            return null;
-        }
-    }
 }
@@ -27,6 +27,7 @@ import de.fraunhofer.iosb.ilt.sensorthingsimporter.ImportException;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.ErrorLog;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.FrostUtils;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.JsonUtils;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.ResolutionCache;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.Translator;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.Translator.StringType;
 import de.fraunhofer.iosb.ilt.sta.ServiceFailureException;
@@ -38,8 +39,6 @@ import de.fraunhofer.iosb.ilt.sta.model.ext.EntityList;
 import de.fraunhofer.iosb.ilt.sta.model.ext.UnitOfMeasurement;
 import de.fraunhofer.iosb.ilt.sta.query.Query;
 import de.fraunhofer.iosb.ilt.sta.service.SensorThingsService;
-import java.util.HashMap;
-import java.util.Map;
 import org.apache.commons.csv.CSVRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,6 +50,10 @@ import org.slf4j.LoggerFactory;
 public class DataStreamGeneratorNames implements DatastreamGenerator, AnnotatedConfigurable<SensorThingsService, Object> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DataStreamGeneratorNames.class.getName());
+    private static final String TYPE_THING = "Thing";
+    private static final String TYPE_SENSOR = "Sensor";
+    private static final String TYPE_OBS_PROP = "ObservedProperty";
+    private static final int DEFAULT_CACHE_SIZE = 10000;
 
     @ConfigurableField(editor = EditorString.class,
             label = "Thing Filter", description = "A filter that will be used to find the Thing for the Datastream to create.")
@@ -102,9 +105,7 @@ public class DataStreamGeneratorNames implements DatastreamGenerator, AnnotatedC
     @EditorString.EdOptsString(dflt = "\"http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement", lines = 1)
     private String templateObsType;
 
-    private final Map<String, Thing> cacheThings = new HashMap<>();
-    private final Map<String, Sensor> cacheSensors = new HashMap<>();
-    private final Map<String, ObservedProperty> cacheObsProps = new HashMap<>();
+    private ResolutionCache cache = new ResolutionCache(DEFAULT_CACHE_SIZE, 0, 0);
 
     private SensorThingsService service;
     private FrostUtils frostUtils;
@@ -116,6 +117,11 @@ public class DataStreamGeneratorNames implements DatastreamGenerator, AnnotatedC
         AnnotatedConfigurable.super.configure(config, context, edtCtx, configEditor);
     }
 
+    @Override
+    public void setResolutionCache(ResolutionCache cache) {
+        this.cache = cache;
+    }
+
     @Override
     public Datastream createDatastreamFor(CSVRecord record, ErrorLog errorLog) throws ImportException {
         Thing thing = getThingFor(record, errorLog);
@@ -180,81 +186,63 @@ public class DataStreamGeneratorNames implements DatastreamGenerator, AnnotatedC
     }
 
     private Thing getThingFor(String filter, ErrorLog errorLog) throws ServiceFailureException, ImportException {
-        Thing t = cacheThings.get(filter);
-        if (t != null) {
+        return cache.get(TYPE_THING, filter, () -> {
+            Thing t = null;
+            Query<Thing> query = service.things().query().filter(filter);
+            EntityList<Thing> streams = query.list();
+            if (streams.size() > 1) {
+                LOGGER.error("Found incorrect number of Things: {} for filter: {}", streams.size(), filter);
+                throw new ImportException("Found incorrect number of Things: " + streams.size() + " for filter: " + filter);
+            } else if (!streams.isEmpty()) {
+                t = streams.iterator().next();
+                LOGGER.debug("Found Thing {} for filter {}.", t.getId(), filter);
+            }
+            if (t == null) {
+                LOGGER.error("Found no Thing for filter: {}.", filter);
+                errorLog.addError("Thing not found");
+            }
             return t;
-        }
-        if (cacheThings.containsKey(filter)) {
-            // We previously had found nothing. Don't search again.
-            return null;
-        }
-        Query<Thing> query = service.things().query().filter(filter);
-        EntityList<Thing> streams = query.list();
-        if (streams.size() > 1) {
-            LOGGER.error("Found incorrect number of Things: {} for filter: {}", streams.size(), filter);
-            throw new ImportException("Found incorrect number of Things: " + streams.size() + " for filter: " + filter);
-        } else if (!streams.isEmpty()) {
-            t = streams.iterator().next();
-            LOGGER.debug("Found Thing {} for filter {}.", t.getId(), filter);
-        }
-        if (t == null) {
-            LOGGER.error("Found no Thing for filter: {}.", filter);
-            errorLog.addError("Thing not found");
-        }
-        cacheThings.put(filter, t);
-        return t;
+        });
     }
 
     private Sensor getSensorFor(String filter, ErrorLog errorLog) throws ServiceFailureException, ImportException {
-        Sensor s = cacheSensors.get(filter);
-        if (s != null) {
+        return cache.get(TYPE_SENSOR, filter, () -> {
+            Sensor s = null;
+            Query<Sensor> query = service.sensors().query().filter(filter);
+            EntityList<Sensor> streams = query.list();
+            if (streams.size() > 1) {
+                LOGGER.error("Found incorrect number of Sensors: {} for filter: {}", streams.size(), filter);
+                throw new ImportException("Found incorrect number of Sensors: " + streams.size() + " for filter: " + filter);
+            } else if (!streams.isEmpty()) {
+                s = streams.iterator().next();
+                LOGGER.debug("Found Sensor {} for filter {}.", s.getId(), filter);
+            }
+            if (s == null) {
+                LOGGER.error("Found no Sensor for filter: {}.", filter);
+                errorLog.addError("Sensor not found");
+            }
             return s;
-        }
-        if (cacheSensors.containsKey(filter)) {
-            // We previously had found nothing. Don't search again.
-            return null;
-        }
-        Query<Sensor> query = service.sensors().query().filter(filter);
-        EntityList<Sensor> streams = query.list();
-        if (streams.size() > 1) {
-            LOGGER.error("Found incorrect number of Sensors: {} for filter: {}", streams.size(), filter);
-            throw new ImportException("Found incorrect number of Sensors: " + streams.size() + " for filter: " + filter);
-        } else if (!streams.isEmpty()) {
-            s = streams.iterator().next();
-            LOGGER.debug("Found Sensor {} for filter {}.", s.getId(), filter);
-        }
-        if (s == null) {
-            LOGGER.error("Found no Sensor for filter: {}.", filter);
-            errorLog.addError("Sensor not found");
-        }
-        cacheSensors.put(filter, s);
-        return s;
+        });
     }
 
     private ObservedProperty getObsPropFor(String filter, ErrorLog errorLog) throws ServiceFailureException, ImportException {
-        ObservedProperty o = cacheObsProps.get(filter);
-        if (o != null) {
+        return cache.get(TYPE_OBS_PROP, filter, () -> {
+            ObservedProperty o = null;
+            Query<ObservedProperty> query = service.observedProperties().query().filter(filter);
+            EntityList<ObservedProperty> streams = query.list();
+            if (streams.size() > 1) {
+                LOGGER.error("Found incorrect number of ObservedProperties: {} for filter: {}", streams.size(), filter);
+                throw new ImportException("Found incorrect number of ObservedProperties: " + streams.size() + " for filter: " + filter);
+            } else if (!streams.isEmpty()) {
+                o = streams.iterator().next();
+                LOGGER.debug("Found ObservedProperties {} for filter {}.", o.getId(), filter);
+            }
+            if (o == null) {
+                LOGGER.error("Found no ObservedProperties for filter: {}.", filter);
+                errorLog.addError("ObsProp not found");
+            }
             return o;
-        }
-        if (cacheObsProps.containsKey(filter)) {
-            // We previously had found nothing. Don't search again.
-            return null;
-        }
-        Query<ObservedProperty> query = service.observedProperties().query().filter(filter);
-        EntityList<ObservedProperty> streams = query.list();
-        if (streams.size() > 1) {
-            LOGGER.error("Found incorrect number of ObservedProperties: {} for filter: {}", streams.size(), filter);
-            throw new ImportException("Found incorrect number of ObservedProperties: " + streams.size() + " for filter: " + filter);
-        } else if (!streams.isEmpty()) {
-            o = streams.iterator().next();
-            LOGGER.debug("Found ObservedProperties {} for filter {}.", o.getId(), filter);
-        }
-        if (o == null) {
-            LOGGER.error("Found no ObservedProperties for filter: {}.", filter);
-            errorLog.addError("ObsProp not found");
-        }
-        cacheObsProps.put(filter, o);
-        return o;
+        });
     }
 
 }
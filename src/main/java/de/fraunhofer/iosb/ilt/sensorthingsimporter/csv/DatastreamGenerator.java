@@ -19,6 +19,7 @@ package de.fraunhofer.iosb.ilt.sensorthingsimporter.csv;
 
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.ImportException;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.ErrorLog;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.ResolutionCache;
 import de.fraunhofer.iosb.ilt.sta.model.Datastream;
 import org.apache.commons.csv.CSVRecord;
 
@@ -29,4 +30,13 @@ import org.apache.commons.csv.CSVRecord;
 public interface DatastreamGenerator {
 
     public Datastream createDatastreamFor(CSVRecord record, ErrorLog errorLog) throws ImportException;
+
+    /**
+     * Use the given cache to resolve related entities, shared with the
+     * mapper that uses this generator.
+     *
+     * @param cache The cache to use.
+     */
+    public default void setResolutionCache(ResolutionCache cache) {
+    }
 }
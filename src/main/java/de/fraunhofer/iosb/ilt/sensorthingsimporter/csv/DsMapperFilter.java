@@ -22,10 +22,12 @@ import de.fraunhofer.iosb.ilt.configurable.AnnotatedConfigurable;
 import de.fraunhofer.iosb.ilt.configurable.ConfigEditor;
 import de.fraunhofer.iosb.ilt.configurable.ConfigurationException;
 import de.fraunhofer.iosb.ilt.configurable.annotations.ConfigurableField;
+import de.fraunhofer.iosb.ilt.configurable.editor.EditorInt;
 import de.fraunhofer.iosb.ilt.configurable.editor.EditorString;
 import de.fraunhofer.iosb.ilt.configurable.editor.EditorSubclass;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.ImportException;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.ErrorLog;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.ResolutionCache;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.Translator;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.Translator.StringType;
 import de.fraunhofer.iosb.ilt.sta.ServiceFailureException;
@@ -34,8 +36,6 @@ import de.fraunhofer.iosb.ilt.sta.model.MultiDatastream;
 import de.fraunhofer.iosb.ilt.sta.model.ext.EntityList;
 import de.fraunhofer.iosb.ilt.sta.query.Query;
 import de.fraunhofer.iosb.ilt.sta.service.SensorThingsService;
-import java.util.HashMap;
-import java.util.Map;
 import org.apache.commons.csv.CSVRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,8 +50,8 @@ public class DsMapperFilter implements DatastreamMapper, AnnotatedConfigurable<S
      * The logger for this class.
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(DsMapperFilter.class);
-    private final Map<String, Datastream> datastreamCache = new HashMap<>();
-    private final Map<String, MultiDatastream> multiDatastreamCache = new HashMap<>();
+    private static final String TYPE_DATASTREAM = "Datastream";
+    private static final String TYPE_MULTI_DATASTREAM = "MultiDatastream";
 
     @ConfigurableField(editor = EditorString.class,
             label = "Filter", description = "A filter that will be added to the query for the datastream.\nUse placeholders {colNr} to add the content of columns to the query.")
@@ -63,7 +63,25 @@ public class DsMapperFilter implements DatastreamMapper, AnnotatedConfigurable<S
     @EditorSubclass.EdOptsSubclass(iface = DatastreamGenerator.class)
     private DatastreamGenerator dsGenerator;
 
+    @ConfigurableField(editor = EditorInt.class, optional = true,
+            label = "Cache Size", description = "The maximum number of cached lookups. The cache holds the (Multi)Datastreams found "
+                    + "by filter, the Things, Sensors and ObservedProperties found by the Datastream generator, and the "
+                    + "lookups that found nothing.")
+    @EditorInt.EdOptsInt(dflt = 10000, min = 1, max = Integer.MAX_VALUE, step = 1)
+    private int cacheSize;
+
+    @ConfigurableField(editor = EditorInt.class, optional = true,
+            label = "Cache TTL", description = "The number of seconds after which a found (Multi)Datastream is looked up again (0=never).")
+    @EditorInt.EdOptsInt(dflt = 0, min = 0, max = Integer.MAX_VALUE, step = 1)
+    private int cacheTtl;
+
+    @ConfigurableField(editor = EditorInt.class, optional = true,
+            label = "Not Found TTL", description = "The number of seconds after which a filter that found nothing is tried again (0=never).")
+    @EditorInt.EdOptsInt(dflt = 0, min = 0, max = Integer.MAX_VALUE, step = 1)
+    private int negativeCacheTtl;
+
     private SensorThingsService service;
+    private ResolutionCache cache;
 
     public DsMapperFilter() {
     }
@@ -72,6 +90,10 @@ public class DsMapperFilter implements DatastreamMapper, AnnotatedConfigurable<S
     public void configure(JsonElement config, SensorThingsService context, Object edtCtx, ConfigEditor<?> configEditor) throws ConfigurationException {
         service = context;
         AnnotatedConfigurable.super.configure(config, context, edtCtx, configEditor);
+        cache = new ResolutionCache(Math.max(1, cacheSize), cacheTtl * 1000L, negativeCacheTtl * 1000L);
+        if (dsGenerator != null) {
+            dsGenerator.setResolutionCache(cache);
+        }
     }
 
     @Override
@@ -87,7 +109,7 @@ public class DsMapperFilter implements DatastreamMapper, AnnotatedConfigurable<S
     }
 
     @Override
-    public MultiDatastream getMultiDatastreamFor(CSVRecord record, ErrorLog errorLog) {
+    public MultiDatastream getMultiDatastreamFor(CSVRecord record, ErrorLog errorLog) throws ImportException {
         try {
             String filter = Translator.fillTemplate(filterTemplate, record, StringType.URL, true);
             MultiDatastream ds = getMultiDatastreamFor(filter, record, errorLog);
@@ -99,14 +121,11 @@ public class DsMapperFilter implements DatastreamMapper, AnnotatedConfigurable<S
     }
 
     private Datastream getDatastreamFor(String filter, CSVRecord record, ErrorLog errorLog) throws ServiceFailureException, ImportException {
-        Datastream ds = datastreamCache.get(filter);
-        if (ds != null) {
-            return ds;
-        }
-        if (datastreamCache.containsKey(filter)) {
-            // We previously had found nothing. Don't search again.
-            return null;
-        }
+        return cache.get(TYPE_DATASTREAM, filter, () -> findDatastreamFor(filter, record, errorLog));
+    }
+
+    private Datastream findDatastreamFor(String filter, CSVRecord record, ErrorLog errorLog) throws ServiceFailureException, ImportException {
+        Datastream ds = null;
         Query<Datastream> query = service.datastreams().query().filter(filter);
         EntityList<Datastream> streams = query.list();
         if (streams.size() > 1) {
@@ -116,9 +135,8 @@ public class DsMapperFilter implements DatastreamMapper, AnnotatedConfigurable<S
                 if (ds == null) {
                     LOGGER.info("DsGenerator did not fix it.");
                 }
-                return ds;
             }
-            return null;
+            return ds;
         } else if (streams.isEmpty()) {
             if (dsGenerator != null) {
                 ds = dsGenerator.createDatastreamFor(record, errorLog);
@@ -134,24 +152,22 @@ public class DsMapperFilter implements DatastreamMapper, AnnotatedConfigurable<S
             errorLog.addError("DS not found");
             LOGGER.error("Found no datastreams for filter: {}.", filter);
         }
-        datastreamCache.put(filter, ds);
         return ds;
     }
 
-    private MultiDatastream getMultiDatastreamFor(String filter, CSVRecord record, ErrorLog errorLog) throws ServiceFailureException {
-        MultiDatastream mds = multiDatastreamCache.get(filter);
-        if (mds != null) {
-            return mds;
-        }
+    private MultiDatastream getMultiDatastreamFor(String filter, CSVRecord record, ErrorLog errorLog) throws ServiceFailureException, ImportException {
+        return cache.get(TYPE_MULTI_DATASTREAM, filter, () -> findMultiDatastreamFor(filter));
+    }
+
+    private MultiDatastream findMultiDatastreamFor(String filter) throws ServiceFailureException {
         Query<MultiDatastream> query = service.multiDatastreams().query().filter(filter);
         EntityList<MultiDatastream> streams = query.list();
         if (streams.size() != 1) {
             LOGGER.error("Found incorrect number of multiDatastreams: {}", streams.size());
             throw new IllegalArgumentException("Found incorrect number of multiDatastreams: " + streams.size());
         }
-        mds = streams.iterator().next();
+        MultiDatastream mds = streams.iterator().next();
         LOGGER.info("Found multiDatastreams {} for query {}.", mds.getId(), filter);
-        multiDatastreamCache.put(filter, mds);
         return mds;
     }
 
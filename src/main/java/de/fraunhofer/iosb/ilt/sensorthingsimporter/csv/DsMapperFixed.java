@@ -46,8 +46,8 @@ public class DsMapperFixed implements DatastreamMapper, AnnotatedConfigurable<Se
 
     private SensorThingsService service;
 
-    private Datastream ds;
-    private MultiDatastream mds;
+    private volatile Datastream ds;
+    private volatile MultiDatastream mds;
 
     @ConfigurableField(editor = EditorInt.class, label = "Datastream ID", description = "The datastream id to add the observations to.")
     @EditorInt.EdOptsInt()
@@ -63,7 +63,10 @@ public class DsMapperFixed implements DatastreamMapper, AnnotatedConfigurable<Se
         AnnotatedConfigurable.super.configure(config, context, edtCtx, configEditor);
     }
 
-    private void init(boolean multi) {
+    private synchronized void init(boolean multi) {
+        if (multi ? mds != null : ds != null) {
+            return;
+        }
         try {
             if (multi) {
                 mds = service.multiDatastreams().find(dsId);
@@ -31,23 +31,34 @@ import de.fraunhofer.iosb.ilt.configurable.editor.EditorString;
 import de.fraunhofer.iosb.ilt.configurable.editor.EditorSubclass;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.ImportException;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.Importer;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.Checkpoint;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.ErrorLog;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.NullStrippingReader;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.UrlUtils;
 import de.fraunhofer.iosb.ilt.sta.model.Observation;
 import de.fraunhofer.iosb.ilt.sta.service.SensorThingsService;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -61,6 +72,14 @@ public class ImporterCsv implements Importer, AnnotatedConfigurable<SensorThings
      * The logger for this class.
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(ImporterCsv.class);
+    /**
+     * The target size of the chunks local files are split in.
+     */
+    private static final long PARALLEL_CHUNK_BYTES = 8L * 1024 * 1024;
+    /**
+     * The number of records converted together by one convert Thread.
+     */
+    private static final int CONVERT_BATCH_SIZE = 1000;
     private SensorThingsService service;
     private boolean verbose;
 
@@ -117,12 +136,31 @@ public class ImporterCsv implements Importer, AnnotatedConfigurable<SensorThings
     @EditorBoolean.EdOptsBool(dflt = true)
     private boolean stripNull;
 
+    @ConfigurableField(editor = EditorBoolean.class, optional = true,
+            label = "Parallel Local Files", description = "Parse local (file:) csv files in parallel, in chunks of the memory-mapped file. Not used when rows are skipped or limited.")
+    @EditorBoolean.EdOptsBool()
+    private boolean parallelFiles;
+
+    @ConfigurableField(editor = EditorInt.class, optional = true,
+            label = "Parse Threads", description = "The number of Threads used to parse local files in parallel (0=number of processors).")
+    @EditorInt.EdOptsInt(dflt = 0, max = 256, min = 0, step = 1)
+    private int parseThreads;
+
+    @ConfigurableField(editor = EditorInt.class, optional = true,
+            label = "Convert Threads", description = "The number of Threads used to convert records into Observations (0=convert on the importer Thread). Only used when all converters are thread safe.")
+    @EditorInt.EdOptsInt(dflt = 0, max = 256, min = 0, step = 1)
+    private int convertThreads;
+
     @ConfigurableField(editor = EditorClass.class, optional = true,
             label = "Error Logger", description = "Configuration of the error logger")
     @EditorClass.EdOptsClass(clazz = ErrorLog.class)
     private ErrorLog errorLog;
 
     private CSVFormat format;
+    private Checkpoint checkpoint;
+    private ForkJoinPool parsePool;
+    private ForkJoinPool convertPool;
+    private boolean convertInParallel;
 
     public ImporterCsv() {
     }
@@ -137,6 +175,11 @@ public class ImporterCsv implements Importer, AnnotatedConfigurable<SensorThings
         // Nothing to set.
     }
 
+    @Override
+    public void setCheckpoint(Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
     @Override
     public String getErrorLog() {
         return errorLog.getErrors();
@@ -174,6 +217,40 @@ public class ImporterCsv implements Importer, AnnotatedConfigurable<SensorThings
             format = format.withFirstRecordAsHeader()
                     .withAllowMissingColumnNames();
         }
+        if (parallelFiles && parsePool == null) {
+            int threads = parseThreads > 0 ? parseThreads : Runtime.getRuntime().availableProcessors();
+            parsePool = new ForkJoinPool(threads);
+        }
+        convertInParallel = true;
+        for (RecordConverter rcCsv : recordConverters) {
+            convertInParallel &= rcCsv.isThreadSafe();
+        }
+        if (convertThreads > 0 && convertPool == null) {
+            if (convertInParallel) {
+                convertPool = new ForkJoinPool(convertThreads);
+            } else {
+                LOGGER.warn("Not all converters are thread safe, converting on the importer Thread.");
+            }
+        }
+    }
+
+    private void convert(CSVRecord record, ErrorLog log, List<Observation> result, long line, String url) {
+        for (RecordConverter rcCsv : recordConverters) {
+            try {
+                if (rcCsv.isThreadSafe()) {
+                    result.addAll(rcCsv.convert(record, log));
+                } else {
+                    synchronized (rcCsv) {
+                        result.addAll(rcCsv.convert(record, log));
+                    }
+                }
+            } catch (ImportException ex) {
+                LOGGER.debug("Failed to import line {}, URL {}.", line, url, ex);
+            } catch (RuntimeException ex) {
+                LOGGER.error("Failed to import line {}, URL {}.", line, url, ex);
+                throw new IllegalStateException(ex);
+            }
+        }
     }
 
     @Override
@@ -187,10 +264,127 @@ public class ImporterCsv implements Importer, AnnotatedConfigurable<SensorThings
         }
     }
 
+    /**
+     * A batch of consecutive records. If all converters are thread safe, the
+     * records are converted when the batch is run in a pool, otherwise they
+     * are converted when the Observations are requested.
+     */
+    private class RecordBatch extends RecursiveAction {
+
+        protected final List<CSVRecord> records;
+        private final long firstLine;
+        private final String url;
+        private long recordCount;
+        private List<Observation> observations;
+
+        /**
+         * @param records The records of the batch.
+         * @param firstLine The number of records in the file before the
+         * batch.
+         * @param url The url the records are read from.
+         */
+        public RecordBatch(List<CSVRecord> records, long firstLine, String url) {
+            this.records = records;
+            this.firstLine = firstLine;
+            this.url = url;
+        }
+
+        /**
+         * @return The number of records in the batch.
+         */
+        public long getRecordCount() {
+            return recordCount;
+        }
+
+        @Override
+        protected void compute() {
+            recordCount = records.size();
+            if (convertInParallel) {
+                observations = convertRecords(errorLog.createChild());
+                records.clear();
+            }
+        }
+
+        /**
+         * @return The Observations of the batch, in record order.
+         */
+        public List<Observation> getObservations() {
+            if (observations == null) {
+                observations = convertRecords(errorLog);
+            }
+            return observations;
+        }
+
+        /**
+         * @return The number of records in the file, up to and including the
+         * last record of this batch.
+         */
+        public long getLastLine() {
+            return firstLine + recordCount;
+        }
+
+        private List<Observation> convertRecords(ErrorLog log) {
+            List<Observation> result = new ArrayList<>();
+            log.setCurrentFileName(url);
+            long line = firstLine;
+            for (CSVRecord record : records) {
+                line++;
+                log.setCurrentLine((int) line);
+                convert(record, log, result, line, url);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Parses one chunk of a memory-mapped file, and converts the records like
+     * any other RecordBatch.
+     */
+    private class ChunkTask extends RecordBatch {
+
+        private final MappedCsvFile file;
+        private final MappedCsvFile.Chunk chunk;
+
+        public ChunkTask(MappedCsvFile file, MappedCsvFile.Chunk chunk, String url) {
+            super(new ArrayList<>(), chunk.getFirstRecord(), url);
+            this.file = file;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected void compute() {
+            Reader reader;
+            try {
+                reader = file.openChunk(chunk);
+            } catch (IOException exc) {
+                throw new UncheckedIOException(exc);
+            }
+            if (stripNull) {
+                reader = new NullStrippingReader(reader);
+            }
+            try (CSVParser chunkParser = CSVParser.parse(reader, format)) {
+                for (CSVRecord record : chunkParser) {
+                    records.add(record);
+                }
+            } catch (IOException exc) {
+                throw new UncheckedIOException(exc);
+            }
+            super.compute();
+        }
+    }
+
     private class ObsListIter implements Iterator<List<Observation>> {
 
+        private static final String CP_URL_INDEX = "csv.urlIndex";
+        private static final String CP_URL = "csv.url";
+        private static final String CP_LINE = "csv.line";
+
         private final Iterator<URL> urlIterator;
+        private CSVParser parser;
         private Iterator<CSVRecord> records;
+        private MappedCsvFile mappedFile;
+        private int nextChunk;
+        private final Deque<RecordBatch> pendingBatches = new ArrayDeque<>();
         private final boolean limitRows;
         private final long rowLimit;
         private final long rowSkipBase;
@@ -199,26 +393,36 @@ public class ImporterCsv implements Importer, AnnotatedConfigurable<SensorThings
         private int totalCount = 0;
         private int currentLine;
         private String currentUrl;
+        private int urlIndex = -1;
+        private int resumeUrlIndex = -1;
+        private String resumeUrl;
+        private long resumeLine;
 
         public ObsListIter(Iterator<URL> urlIterator, long rowSkip, long rowLimit) throws ImportException {
+            if (checkpoint != null && checkpoint.get(CP_URL_INDEX) != null) {
+                resumeUrlIndex = Integer.parseInt(checkpoint.get(CP_URL_INDEX));
+                resumeUrl = checkpoint.get(CP_URL);
+                resumeLine = Long.parseLong(checkpoint.get(CP_LINE));
+                LOGGER.info("Resuming at URL {}, line {}.", resumeUrlIndex, resumeLine);
+            }
             this.rowSkipBase = rowSkip;
             this.rowSkip = rowSkip;
             this.urlIterator = urlIterator;
-            this.records = nextUrl().iterator();
             this.rowLimit = rowLimit;
             limitRows = rowLimit > 0;
+            this.records = nextUrl();
         }
 
         @Override
         public boolean hasNext() {
-            return records != null && records.hasNext() || urlIterator.hasNext();
+            return records != null && records.hasNext() || !pendingBatches.isEmpty() || urlIterator.hasNext();
         }
 
         @Override
         public List<Observation> next() {
-            if (!records.hasNext()) {
+            if (!records.hasNext() && pendingBatches.isEmpty()) {
                 try {
-                    records = nextUrl().iterator();
+                    records = nextUrl();
                     currentLine = 0;
                     errorLog.setCurrentLine(currentLine);
                 } catch (RuntimeException | ImportException ex) {
@@ -226,6 +430,12 @@ public class ImporterCsv implements Importer, AnnotatedConfigurable<SensorThings
                     throw new IllegalStateException(ex);
                 }
             }
+            if (mappedFile == null && convertPool != null && records != null) {
+                submitBatches();
+            }
+            if (!pendingBatches.isEmpty()) {
+                return nextBatch();
+            }
             while (records != null && records.hasNext()) {
                 CSVRecord record = records.next();
                 totalCount++;
@@ -239,54 +449,199 @@ public class ImporterCsv implements Importer, AnnotatedConfigurable<SensorThings
                     return Collections.emptyList();
                 }
                 List<Observation> result = new ArrayList<>();
-                for (RecordConverter rcCsv : recordConverters) {
-                    List<Observation> obs;
-                    try {
-                        obs = rcCsv.convert(record, errorLog);
-                        result.addAll(obs);
-                    } catch (ImportException ex) {
-                        LOGGER.debug("Failed to import line {}, URL {}.", currentLine, currentUrl, ex);
-                    } catch (RuntimeException ex) {
-                        LOGGER.error("Failed to import line {}, URL {}.", currentLine, currentUrl, ex);
-                        throw new IllegalStateException(ex);
-                    }
-                }
+                convert(record, errorLog, result, currentLine, currentUrl);
                 rowCount++;
+                saveCheckpoint(currentLine);
                 return result;
             }
             LOGGER.debug("Parsed {} rows of {}.", rowCount, totalCount);
+            closeParser();
             return Collections.emptyList();
         }
 
-        private CSVParser nextUrl() throws ImportException {
+        /**
+         * Returns the Observations of the next batch, or chunk of the mapped
+         * file. Batches are returned in file order, so Observations for each
+         * Datastream stay in the order of the file.
+         */
+        private List<Observation> nextBatch() {
+            RecordBatch batch = pendingBatches.poll();
+            List<Observation> result;
+            try {
+                batch.join();
+                if (mappedFile == null) {
+                    submitBatches();
+                } else {
+                    submitChunks();
+                }
+                result = batch.getObservations();
+            } catch (RuntimeException ex) {
+                LOGGER.error("Failed to import lines after {}, URL {}.", batch.getLastLine() - batch.getRecordCount(), currentUrl);
+                throw new IllegalStateException(ex);
+            }
+            if (mappedFile != null) {
+                totalCount += batch.getRecordCount();
+                rowCount += batch.getRecordCount();
+                currentLine = (int) batch.getLastLine();
+                errorLog.setCurrentLine(currentLine);
+            }
+            saveCheckpoint((int) batch.getLastLine());
+            if (mappedFile != null && pendingBatches.isEmpty()) {
+                LOGGER.debug("Parsed {} rows of {}.", rowCount, totalCount);
+                mappedFile = null;
+            }
+            return result;
+        }
+
+        /**
+         * Submits chunks of the mapped file to the pool, until twice the
+         * number of Threads in the pool are queued or running.
+         */
+        private void submitChunks() {
+            if (mappedFile == null) {
+                return;
+            }
+            final List<MappedCsvFile.Chunk> chunks = mappedFile.getChunks();
+            final int maxPending = 2 * parsePool.getParallelism();
+            while (nextChunk < chunks.size() && pendingBatches.size() < maxPending) {
+                ChunkTask task = new ChunkTask(mappedFile, chunks.get(nextChunk), currentUrl);
+                nextChunk++;
+                parsePool.execute(task);
+                pendingBatches.add(task);
+            }
+        }
+
+        /**
+         * Reads batches of records and submits them to the convert pool,
+         * until twice the number of Threads in the pool are queued or
+         * running. Skipping and limiting rows is done here, on the importer
+         * Thread.
+         */
+        private void submitBatches() {
+            final int maxPending = 2 * convertPool.getParallelism();
+            while (pendingBatches.size() < maxPending && records.hasNext()) {
+                List<CSVRecord> batch = new ArrayList<>(CONVERT_BATCH_SIZE);
+                long firstLine = currentLine;
+                while (batch.size() < CONVERT_BATCH_SIZE && records.hasNext()) {
+                    CSVRecord record = records.next();
+                    totalCount++;
+                    currentLine++;
+                    if (rowSkip > 0) {
+                        rowSkip--;
+                        firstLine = currentLine;
+                        continue;
+                    }
+                    if (limitRows && rowCount > rowLimit) {
+                        continue;
+                    }
+                    batch.add(record);
+                    rowCount++;
+                }
+                if (batch.isEmpty()) {
+                    continue;
+                }
+                RecordBatch task = new RecordBatch(batch, firstLine, currentUrl);
+                convertPool.execute(task);
+                pendingBatches.add(task);
+            }
+        }
+
+        private void saveCheckpoint(int line) {
+            if (checkpoint != null) {
+                checkpoint.put(CP_URL_INDEX, Integer.toString(urlIndex));
+                checkpoint.put(CP_URL, currentUrl);
+                checkpoint.put(CP_LINE, Integer.toString(line));
+            }
+        }
+
+        private void closeParser() {
+            if (parser == null) {
+                return;
+            }
+            try {
+                parser.close();
+            } catch (IOException exc) {
+                LOGGER.warn("Failed to close URL {}: {}", currentUrl, exc.getMessage());
+            }
+            parser = null;
+        }
+
+        /**
+         * Maps the given URL, if it is a local file that can be parsed in
+         * parallel.
+         *
+         * @return true if the file is mapped.
+         */
+        private boolean mapFile(URL inUrl, Charset cs) throws IOException {
+            if (!parallelFiles || !"file".equals(inUrl.getProtocol()) || limitRows || rowSkip > 0) {
+                return false;
+            }
+            final Path path;
+            try {
+                path = Paths.get(inUrl.toURI());
+            } catch (URISyntaxException | IllegalArgumentException exc) {
+                LOGGER.debug("Not mapping URL {}: {}", inUrl, exc.getMessage());
+                return false;
+            }
+            mappedFile = MappedCsvFile.open(path, cs, format.getDelimiter(), commentMarker, hasHeader, PARALLEL_CHUNK_BYTES);
+            if (mappedFile == null) {
+                LOGGER.info("Can not split {} in charset {}, parsing sequentially.", inUrl, cs);
+                return false;
+            }
+            LOGGER.info("Parsing {} in {} chunks.", inUrl, mappedFile.getChunks().size());
+            nextChunk = 0;
+            submitChunks();
+            return true;
+        }
+
+        private Iterator<CSVRecord> nextUrl() throws ImportException {
+            closeParser();
             rowSkip = rowSkipBase;
             while (urlIterator.hasNext()) {
                 URL inUrl = urlIterator.next();
+                urlIndex++;
+                if (urlIndex < resumeUrlIndex) {
+                    LOGGER.debug("Skipping URL {}, done according to checkpoint.", inUrl);
+                    continue;
+                }
+                if (urlIndex == resumeUrlIndex) {
+                    if (String.valueOf(inUrl).equals(resumeUrl)) {
+                        rowSkip = Math.max(rowSkip, resumeLine);
+                    } else {
+                        LOGGER.warn("URL {} does not match checkpoint URL {}, not skipping lines.", inUrl, resumeUrl);
+                    }
+                }
                 LOGGER.debug("Next URL: {}", inUrl);
                 try {
-                    CSVParser parser;
                     if (inUrl != null) {
                         currentUrl = inUrl.toString();
                         errorLog.setCurrentFileName(currentUrl);
                         final String protocol = inUrl.getProtocol();
-                        String data;
+                        final Charset cs = Charset.forName(charset);
+                        if (mapFile(inUrl, cs)) {
+                            return Collections.emptyIterator();
+                        }
+                        Reader reader;
                         if (protocol.startsWith("ftp")) {
                             URLConnection connection = inUrl.openConnection();
-                            try (InputStream stream = connection.getInputStream()) {
-                                data = IOUtils.toString(stream, "UTF-8");
-                            }
+                            reader = new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8);
                         } else {
-                            data = UrlUtils.fetchFromUrl(inUrl.toString(), charset).data;
+                            reader = UrlUtils.openReader(inUrl.toString(), cs);
                         }
                         if (stripNull) {
-                            data = StringUtils.replaceChars(data, "\u0000", "");
+                            reader = new NullStrippingReader(reader);
+                        }
+                        try {
+                            parser = CSVParser.parse(reader, format);
+                        } catch (IOException | RuntimeException exc) {
+                            reader.close();
+                            throw exc;
                         }
-                        parser = CSVParser.parse(data, format);
                     } else {
                         LOGGER.error("No valid input url or file.");
                         throw new ImportException("No valid input url or file.");
                     }
-                    return parser;
+                    return parser.iterator();
                 } catch (ImportException | IOException exc) {
                     LOGGER.error("Failed to handle URL: {}; {}", inUrl, exc.getMessage());
                 }
@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2026 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sensorthingsimporter.csv;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A local csv file, memory-mapped and split into chunks that each hold a whole
+ * number of records, so the chunks can be parsed independently. Splitting
+ * needs a single byte scan over the file, that tracks quoted fields and
+ * comment lines. Each chunk is parsed with the header line of the file
+ * prepended, so the same CSVFormat can be used as for the whole file.
+ *
+ * @author hylke
+ */
+public class MappedCsvFile {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedCsvFile.class.getName());
+
+    /**
+     * The size of the windows the file is mapped in while scanning.
+     */
+    private static final long SCAN_WINDOW = 256L * 1024 * 1024;
+    private static final byte QUOTE = '"';
+    private static final byte NEWLINE = '\n';
+    private static final byte RETURN = '\r';
+
+    /**
+     * A range of bytes in the file, starting and ending at a record boundary.
+     */
+    public static class Chunk {
+
+        private final int index;
+        private final long start;
+        private final long end;
+        private final long firstRecord;
+        private final long recordCount;
+
+        public Chunk(int index, long start, long end, long firstRecord, long recordCount) {
+            this.index = index;
+            this.start = start;
+            this.end = end;
+            this.firstRecord = firstRecord;
+            this.recordCount = recordCount;
+        }
+
+        /**
+         * @return The index of the chunk in the file, starting at 0.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * @return The number of data records in the file before this chunk.
+         */
+        public long getFirstRecord() {
+            return firstRecord;
+        }
+
+        /**
+         * @return The number of data records in this chunk.
+         */
+        public long getRecordCount() {
+            return recordCount;
+        }
+
+        public long getLength() {
+            return end - start;
+        }
+    }
+
+    private final Path file;
+    private final Charset charset;
+    /**
+     * The comment marker, or -1 if there is none.
+     */
+    private final int commentMarker;
+    private final byte delimiter;
+    private final boolean hasHeader;
+    private final List<Chunk> chunks = new ArrayList<>();
+    private String header = "";
+
+    private MappedCsvFile(Path file, Charset charset, byte delimiter, int commentMarker, boolean hasHeader) {
+        this.file = file;
+        this.charset = charset;
+        this.delimiter = delimiter;
+        this.commentMarker = commentMarker;
+        this.hasHeader = hasHeader;
+    }
+
+    /**
+     * Checks if files in the given character set can be split on bytes. This
+     * is the case if the bytes of quotes and newlines can not be part of other
+     * characters.
+     *
+     * @param charset The character set to check.
+     * @return true if files in the given character set can be split.
+     */
+    public static boolean supports(Charset charset) {
+        final String name = charset.name();
+        return charset.equals(StandardCharsets.UTF_8)
+                || charset.equals(StandardCharsets.US_ASCII)
+                || name.startsWith("ISO-8859-")
+                || name.startsWith("windows-125");
+    }
+
+    /**
+     * Maps and splits the given file.
+     *
+     * @param file The file to split.
+     * @param charset The character set of the file.
+     * @param delimiter The delimiter between fields. Must be ASCII.
+     * @param commentMarker The comment marker, or null or empty if the file
+     * has no comments.
+     * @param hasHeader Whether the first record of the file is a header.
+     * @param chunkBytes The size in bytes that chunks should have. Chunks are
+     * extended to the next record boundary.
+     * @return The split file, or null if the file can not be split because
+     * of its character set or delimiter.
+     * @throws IOException If the file could not be read.
+     */
+    public static MappedCsvFile open(Path file, Charset charset, char delimiter, String commentMarker, boolean hasHeader, long chunkBytes) throws IOException {
+        if (!supports(charset) || delimiter > 0x7F) {
+            return null;
+        }
+        int marker = -1;
+        if (commentMarker != null && !commentMarker.isEmpty()) {
+            if (commentMarker.charAt(0) > 0x7F) {
+                return null;
+            }
+            marker = commentMarker.charAt(0);
+        }
+        MappedCsvFile result = new MappedCsvFile(file, charset, (byte) delimiter, marker, hasHeader);
+        if (!result.split(chunkBytes)) {
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * @return The chunks of the file, in file order.
+     */
+    public List<Chunk> getChunks() {
+        return Collections.unmodifiableList(chunks);
+    }
+
+    /**
+     * Opens a Reader on the given chunk, with the header of the file
+     * prepended.
+     *
+     * @param chunk The chunk to open.
+     * @return A Reader on the (decoded) chunk.
+     * @throws IOException If the chunk could not be read.
+     */
+    public Reader openChunk(Chunk chunk) throws IOException {
+        final CharBuffer chars;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            chars = decode(channel, chunk.start, chunk.end);
+        }
+        final int headerLength = header.length();
+        final char[] data = new char[headerLength + chars.remaining()];
+        header.getChars(0, headerLength, data, 0);
+        chars.get(data, headerLength, data.length - headerLength);
+        return new CharArrayReader(data);
+    }
+
+    private boolean split(long chunkBytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final long dataStart = findDataStart(channel);
+            if (dataStart < 0) {
+                return false;
+            }
+            long chunkStart = hasHeader ? -1 : dataStart;
+            long records = 0;
+            long chunkRecords = 0;
+            boolean inQuote = false;
+            boolean quoteEnding = false;
+            boolean fieldStart = true;
+            boolean inComment = false;
+            boolean lineEmpty = true;
+            for (long windowStart = dataStart; windowStart < size; windowStart += SCAN_WINDOW) {
+                final int windowSize = (int) Math.min(SCAN_WINDOW, size - windowStart);
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+                for (int i = 0; i < windowSize; i++) {
+                    final byte b = buffer.get(i);
+                    if (inComment) {
+                        if (b == NEWLINE) {
+                            inComment = false;
+                        }
+                        continue;
+                    }
+                    if (inQuote) {
+                        // Like commons-csv: a quote ends the quoted field,
+                        // unless it is followed by a second quote.
+                        if (!quoteEnding) {
+                            quoteEnding = b == QUOTE;
+                            continue;
+                        }
+                        quoteEnding = false;
+                        if (b == QUOTE) {
+                            continue;
+                        }
+                        inQuote = false;
+                    }
+                    if (b == NEWLINE) {
+                        fieldStart = true;
+                        if (lineEmpty) {
+                            continue;
+                        }
+                        lineEmpty = true;
+                        final long pos = windowStart + i + 1;
+                        if (chunkStart < 0) {
+                            header = decode(channel, dataStart, pos).toString();
+                            chunkStart = pos;
+                            continue;
+                        }
+                        chunkRecords++;
+                        if (pos - chunkStart >= chunkBytes) {
+                            chunks.add(new Chunk(chunks.size(), chunkStart, pos, records, chunkRecords));
+                            records += chunkRecords;
+                            chunkRecords = 0;
+                            chunkStart = pos;
+                        }
+                    } else if (b == RETURN) {
+                        // A line with only a carriage return is still empty.
+                    } else if (lineEmpty && commentMarker >= 0 && b == commentMarker) {
+                        inComment = true;
+                    } else {
+                        lineEmpty = false;
+                        if (b == delimiter) {
+                            fieldStart = true;
+                        } else {
+                            // A quote inside an unquoted field is a normal character.
+                            inQuote = fieldStart && b == QUOTE;
+                            fieldStart = false;
+                        }
+                    }
+                }
+            }
+            if (chunkStart < 0) {
+                // Only a header, without a newline.
+                return true;
+            }
+            if (!lineEmpty && !inComment) {
+                chunkRecords++;
+            }
+            if (size > chunkStart) {
+                chunks.add(new Chunk(chunks.size(), chunkStart, size, records, chunkRecords));
+            }
+            if (inQuote && !quoteEnding) {
+                LOGGER.warn("File {} ends inside a quoted field.", file);
+            }
+            LOGGER.debug("Split {} bytes into {} chunks.", size, chunks.size());
+            return true;
+        }
+    }
+
+    /**
+     * Finds the start of the data, after a byte order mark.
+     *
+     * @return The offset of the first byte after the byte order mark, or -1
+     * if the file starts with a byte order mark for a different character
+     * set.
+     */
+    private long findDataStart(FileChannel channel) throws IOException {
+        final ByteBuffer bom = ByteBuffer.allocate(3);
+        channel.read(bom, 0);
+        final byte[] bytes = bom.array();
+        final int length = bom.position();
+        if (length >= 3 && bytes[0] == (byte) 0xEF && bytes[1] == (byte) 0xBB && bytes[2] == (byte) 0xBF) {
+            return charset.equals(StandardCharsets.UTF_8) ? 3 : -1;
+        }
+        if (length >= 2 && (bytes[0] == (byte) 0xFE && bytes[1] == (byte) 0xFF || bytes[0] == (byte) 0xFF && bytes[1] == (byte) 0xFE)) {
+            return -1;
+        }
+        return 0;
+    }
+
+    private CharBuffer decode(FileChannel channel, long start, long end) throws IOException {
+        if (end - start > Integer.MAX_VALUE) {
+            throw new IOException("Chunk of " + (end - start) + " bytes at offset " + start + " of " + file + " is too large to map.");
+        }
+        final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        return charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .decode(buffer);
+    }
+
+}
@@ -36,5 +36,16 @@ public interface RecordConverter {
     public default void setVerbose(boolean verbose) {
     }
 
+    /**
+     * Indicates if convert may be called from several Threads at the same
+     * time. Converters that are not thread safe are called by one Thread at a
+     * time.
+     *
+     * @return true if convert is thread safe.
+     */
+    public default boolean isThreadSafe() {
+        return false;
+    }
+
     public List<Observation> convert(CSVRecord record, ErrorLog errorLog) throws ImportException;
 }
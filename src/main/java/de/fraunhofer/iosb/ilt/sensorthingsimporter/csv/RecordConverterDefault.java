@@ -128,6 +128,11 @@ public class RecordConverterDefault implements RecordConverter, AnnotatedConfigu
         this.verbose = verbose;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public List<Observation> convert(CSVRecord record, ErrorLog errorLog) throws ImportException {
         Object result;
@@ -136,6 +136,11 @@ public class RecordConverterNames implements RecordConverter, AnnotatedConfigura
         this.verbose = verbose;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public void configure(JsonElement config, SensorThingsService context, Object edtCtx, ConfigEditor<?> configEditor) throws ConfigurationException {
         AnnotatedConfigurable.super.configure(config, context, edtCtx, configEditor);
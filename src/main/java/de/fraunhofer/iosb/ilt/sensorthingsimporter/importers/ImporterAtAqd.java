@@ -34,20 +34,25 @@ import de.fraunhofer.iosb.ilt.configurable.ConfigEditor;
 import de.fraunhofer.iosb.ilt.configurable.ConfigurationException;
 import de.fraunhofer.iosb.ilt.configurable.annotations.ConfigurableField;
 import de.fraunhofer.iosb.ilt.configurable.editor.EditorBoolean;
+import de.fraunhofer.iosb.ilt.configurable.editor.EditorInt;
 import de.fraunhofer.iosb.ilt.configurable.editor.EditorString;
 import de.fraunhofer.iosb.ilt.configurable.editor.EditorSubclass;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.ImportException;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.Importer;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.importers.eea.EeaObservedProperty;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.timegen.TimeGen;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.Checkpoint;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.EntityCache;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.FrostUtils;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.ProgressTracker;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.UrlUtils;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.VirtualThreads;
 import de.fraunhofer.iosb.ilt.sta.ServiceFailureException;
 import de.fraunhofer.iosb.ilt.sta.StatusCodeException;
 import de.fraunhofer.iosb.ilt.sta.Utils;
+import de.fraunhofer.iosb.ilt.sta.dao.BaseDao;
 import de.fraunhofer.iosb.ilt.sta.model.Datastream;
+import de.fraunhofer.iosb.ilt.sta.model.Entity;
 import de.fraunhofer.iosb.ilt.sta.model.FeatureOfInterest;
 import de.fraunhofer.iosb.ilt.sta.model.Location;
 import de.fraunhofer.iosb.ilt.sta.model.Observation;
@@ -59,6 +64,9 @@ import de.fraunhofer.iosb.ilt.sta.service.SensorThingsService;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeParseException;
@@ -73,6 +81,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.xml.namespace.NamespaceContext;
@@ -103,6 +114,7 @@ public class ImporterAtAqd implements Importer, AnnotatedConfigurable<SensorThin
 
     private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(ImporterAtAqd.class.getName());
 
+    private static final String CP_DONE_PREFIX = "ataqd.done.";
     private static final Pattern SENSOR_ID_PATTERN = Pattern.compile("^(SPP\\.[0-9]+\\.[0-9A-Za-z]+\\.[0-9]+\\.([0-9]+))\\.([0-9]+)\\.([0-9]+)$");
 
     @ConfigurableField(editor = EditorBoolean.class,
@@ -170,8 +182,24 @@ public class ImporterAtAqd implements Importer, AnnotatedConfigurable<SensorThin
     @EditorSubclass.EdOptsSubclass(iface = TimeGen.class)
     private TimeGen startTime;
 
+    @ConfigurableField(editor = EditorInt.class, optional = true,
+            label = "Cache Load Threads",
+            description = "The number of pages to fetch in parallel, per entity type, when loading the entity caches.")
+    @EditorInt.EdOptsInt(dflt = 4, min = 1, max = 64, step = 1)
+    private int cacheLoadThreads;
+
+    @ConfigurableField(editor = EditorString.class, optional = true,
+            label = "Cache Snapshot Dir",
+            description = "A directory to keep snapshots of the entity caches in. When set, the caches are loaded from the "
+                    + "snapshots and revalidated against the server in the background. Use one directory per server. "
+                    + "New entities are found by id, which requires the server to use numeric, increasing ids. "
+                    + "With other ids the caches are fully loaded each time.")
+    @EditorString.EdOptsString(dflt = "")
+    private String cacheSnapshotDir;
+
     private boolean verbose = false;
     private ProgressTracker tracker;
+    private Checkpoint checkpoint;
 
     private SensorThingsService service;
     private FrostUtils frostUtils;
@@ -240,6 +268,11 @@ public class ImporterAtAqd implements Importer, AnnotatedConfigurable<SensorThin
         this.tracker = tracker;
     }
 
+    @Override
+    public void setCheckpoint(Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
     @Override
     public Iterator<List<Observation>> iterator() {
         try {
@@ -268,58 +301,110 @@ public class ImporterAtAqd implements Importer, AnnotatedConfigurable<SensorThin
         }
     }
 
+    /**
+     * Loads all six entity types at the same time. On later calls, only
+     * entities created since the last load are fetched. With a snapshot
+     * directory, the first load reads the snapshot instead, and revalidates
+     * it in the background.
+     */
     private void loadCache() throws ServiceFailureException {
         LOGGER.debug("Caching entities");
 
         String filter = "properties/" + TAG_OWNER + " eq " + FrostUtils.quoteForUrl(entityOwner);
-        final int observedPropertyCount = observedPropertyCache.load(
-                service.observedProperties(),
-                filter,
-                "id,name,description,definition,properties",
-                "");
-        LOGGER.debug("Loaded {} ObservedProperties", observedPropertyCount);
-
-        final int locationCount = locationsCache.load(
-                service.locations(),
-                filter,
-                "id,name,description,properties,encodingType,location",
-                "");
-        LOGGER.debug("Loaded {} Locations", locationCount);
-
-        final int thingCount = thingsCache.load(
-                service.things(),
-                filter,
-                "id,name,description,properties",
-                "Locations($select=id)");
-        LOGGER.debug("Loaded {} Things", thingCount);
-
-        final int sensorCount = sensorCache.load(
-                service.sensors(),
-                filter,
-                "id,name,description,encodingType,metadata,properties",
-                "");
-        LOGGER.debug("Loaded {} Sensors", sensorCount);
-
-        final int foiCount = foiCache.load(
-                service.featuresOfInterest(),
-                filter,
-                "id,name,description,encodingType,feature,properties",
-                "");
-        LOGGER.debug("Loaded {} FeaturesOfInterest", foiCount);
-
-        final int datastreamCount = datastreamCache.load(
-                service.datastreams(),
-                filter,
-                "id,name,description,unitOfMeasurement,observationType,properties,phenomenonTime",
-                "");
-        LOGGER.debug("Loaded {} Datastreams", datastreamCount);
-        LOGGER.info("Cached {} OP, {} Loc, {} Thngs, {} Snsrs, {} FoIs, {} DS",
-                observedPropertyCount,
-                locationCount,
-                thingCount,
-                sensorCount,
-                foiCount,
-                datastreamCount);
+        final ExecutorService executor = VirtualThreads.newExecutor("AtAqd-cache-", false, 6);
+        try {
+            final Future<Integer> observedPropertyCount = executor.submit(() -> loadCache(
+                    observedPropertyCache,
+                    ObservedProperty.class,
+                    service.observedProperties(),
+                    filter,
+                    "id,name,description,definition,properties",
+                    ""));
+            final Future<Integer> locationCount = executor.submit(() -> loadCache(
+                    locationsCache,
+                    Location.class,
+                    service.locations(),
+                    filter,
+                    "id,name,description,properties,encodingType,location",
+                    ""));
+            final Future<Integer> thingCount = executor.submit(() -> loadCache(
+                    thingsCache,
+                    Thing.class,
+                    service.things(),
+                    filter,
+                    "id,name,description,properties",
+                    "Locations($select=id)"));
+            final Future<Integer> sensorCount = executor.submit(() -> loadCache(
+                    sensorCache,
+                    Sensor.class,
+                    service.sensors(),
+                    filter,
+                    "id,name,description,encodingType,metadata,properties",
+                    ""));
+            final Future<Integer> foiCount = executor.submit(() -> loadCache(
+                    foiCache,
+                    FeatureOfInterest.class,
+                    service.featuresOfInterest(),
+                    filter,
+                    "id,name,description,encodingType,feature,properties",
+                    ""));
+            final Future<Integer> datastreamCount = executor.submit(() -> loadCache(
+                    datastreamCache,
+                    Datastream.class,
+                    service.datastreams(),
+                    filter,
+                    "id,name,description,unitOfMeasurement,observationType,properties,phenomenonTime",
+                    ""));
+            LOGGER.info("Cached {} OP, {} Loc, {} Thngs, {} Snsrs, {} FoIs, {} DS",
+                    waitFor(observedPropertyCount),
+                    waitFor(locationCount),
+                    waitFor(thingCount),
+                    waitFor(sensorCount),
+                    waitFor(foiCount),
+                    waitFor(datastreamCount));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private <T extends Entity<T>> int loadCache(EntityCache<String, T> cache, Class<T> entityClass, BaseDao<T> dao, String filter, String select, String expand) throws ServiceFailureException {
+        cache.setLoadThreads(cacheLoadThreads);
+        if (Utils.isNullOrEmpty(cacheSnapshotDir)) {
+            return cache.refresh(dao, filter, select, expand);
+        }
+        final Path snapshot = Paths.get(cacheSnapshotDir, entityClass.getSimpleName() + ".json");
+        if (cache.isEmpty() && Files.exists(snapshot)) {
+            try {
+                int count = cache.loadSnapshot(snapshot, entityClass, service);
+                count += cache.refresh(dao, filter, select, expand);
+                cache.revalidate(dao, filter, select, expand, snapshot);
+                return count;
+            } catch (IOException ex) {
+                LOGGER.warn("Failed to read cache snapshot {}, loading from server: {}", snapshot, ex.getMessage());
+            }
+        }
+        final int count = cache.refresh(dao, filter, select, expand);
+        try {
+            cache.saveSnapshot(snapshot);
+        } catch (IOException ex) {
+            LOGGER.warn("Failed to write cache snapshot {}: {}", snapshot, ex.getMessage());
+        }
+        return count;
+    }
+
+    private static int waitFor(Future<Integer> count) throws ServiceFailureException {
+        try {
+            return count.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ServiceFailureException("Interrupted while loading entities.", ex);
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof ServiceFailureException) {
+                throw (ServiceFailureException) cause;
+            }
+            throw new ServiceFailureException("Failed to load entities: " + cause.getMessage(), cause);
+        }
     }
 
     private void importThings() throws ImportException {
@@ -840,13 +925,23 @@ public class ImporterAtAqd implements Importer, AnnotatedConfigurable<SensorThin
 
         @Override
         public List<Observation> next() {
-            if (datastreamIterator.hasNext()) {
+            while (datastreamIterator.hasNext()) {
                 Datastream ds = datastreamIterator.next();
+                final String checkpointKey = CP_DONE_PREFIX + ds.getProperties().get(TAG_LOCAL_ID);
+                tracker.updateProgress(++progress, count);
+                if (checkpoint != null && checkpoint.get(checkpointKey) != null) {
+                    LOGGER.debug("Skipping datastream {}, done according to checkpoint.", ds.getName());
+                    continue;
+                }
                 try {
-                    tracker.updateProgress(++progress, count);
-                    return importDatastream(ds);
+                    List<Observation> result = importDatastream(ds);
+                    if (checkpoint != null) {
+                        checkpoint.put(checkpointKey, "true");
+                    }
+                    return result;
                 } catch (ImportException | ServiceFailureException ex) {
                     LOGGER.error("Failed to import data for datastream " + ds.getName(), ex);
+                    break;
                 }
             }
             return Collections.emptyList();
@@ -30,6 +30,7 @@ import de.fraunhofer.iosb.ilt.configurable.editor.EditorSubclass;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.Importer;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.auth.AuthMethod;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.timegen.TimeGen;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.Checkpoint;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.FrostUtils;
 import de.fraunhofer.iosb.ilt.sta.ServiceFailureException;
 import de.fraunhofer.iosb.ilt.sta.StatusCodeException;
@@ -42,6 +43,7 @@ import de.fraunhofer.iosb.ilt.sta.service.SensorThingsService;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -58,6 +60,7 @@ import org.threeten.extra.Interval;
 public class ImporterSta implements Importer, AnnotatedConfigurable<SensorThingsService, Object> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ImporterSta.class.getName());
+    private static final String CP_START_PREFIX = "sta.start.";
 
     @ConfigurableField(editor = EditorString.class,
             label = "Source Service URL", description = "The url of the server to import from.")
@@ -87,6 +90,7 @@ public class ImporterSta implements Importer, AnnotatedConfigurable<SensorThings
 
     private SensorThingsService targetService;
     private FrostUtils frostUtils;
+    private Checkpoint checkpoint;
 
     @Override
     public void configure(JsonElement config, SensorThingsService context, Object edtCtx, ConfigEditor<?> configEditor) throws ConfigurationException {
@@ -95,6 +99,11 @@ public class ImporterSta implements Importer, AnnotatedConfigurable<SensorThings
         frostUtils = new FrostUtils(targetService);
     }
 
+    @Override
+    public void setCheckpoint(Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
     @Override
     public Iterator<List<Observation>> iterator() {
         return new ObservationListIter(this);
@@ -196,6 +205,11 @@ public class ImporterSta implements Importer, AnnotatedConfigurable<SensorThings
                 currentSourceDatastream = sourceDatastreams.next();
                 currentTargetDatastream = parent.findTargetFor(currentSourceDatastream);
                 startTime = parent.minTime.getInstant(currentSourceDatastream);
+                final Instant resumeTime = getCheckpointTime();
+                if (resumeTime != null && resumeTime.isAfter(startTime)) {
+                    LOGGER.info("Resuming {} from checkpoint at {}.", currentSourceDatastream, resumeTime);
+                    startTime = resumeTime;
+                }
                 final Interval phenomenonTime = currentSourceDatastream.getPhenomenonTime();
                 if (phenomenonTime == null) {
                     finalTime = Instant.now();
@@ -218,6 +232,8 @@ public class ImporterSta implements Importer, AnnotatedConfigurable<SensorThings
                 if (currentSourceDatastream == null || currentTargetDatastream == null) {
                     return Collections.emptyList();
                 }
+                // All Observations before startTime have been returned.
+                putCheckpointTime(startTime);
                 Instant endTime = startTime.plus(parent.daysPerBatch, ChronoUnit.DAYS);
                 sourceObservations = currentSourceDatastream.observations()
                         .query()
@@ -244,6 +260,28 @@ public class ImporterSta implements Importer, AnnotatedConfigurable<SensorThings
             return result;
         }
 
+        private Instant getCheckpointTime() {
+            if (parent.checkpoint == null) {
+                return null;
+            }
+            final String value = parent.checkpoint.get(CP_START_PREFIX + currentSourceDatastream.getId().getUrl());
+            if (value == null) {
+                return null;
+            }
+            try {
+                return Instant.parse(value);
+            } catch (DateTimeParseException ex) {
+                LOGGER.warn("Ignoring invalid checkpoint time {} for {}.", value, currentSourceDatastream);
+                return null;
+            }
+        }
+
+        private void putCheckpointTime(Instant time) {
+            if (parent.checkpoint != null) {
+                parent.checkpoint.put(CP_START_PREFIX + currentSourceDatastream.getId().getUrl(), time.toString());
+            }
+        }
+
         @Override
         public boolean hasNext() {
             return sourceThings != null && sourceThings.hasNext()
@@ -17,16 +17,31 @@
  */
 package de.fraunhofer.iosb.ilt.sensorthingsimporter.timegen;
 
+import com.google.gson.JsonElement;
+import de.fraunhofer.iosb.ilt.configurable.ConfigEditor;
+import de.fraunhofer.iosb.ilt.configurable.ConfigurationException;
 import de.fraunhofer.iosb.ilt.configurable.annotations.ConfigurableField;
+import de.fraunhofer.iosb.ilt.configurable.editor.EditorBoolean;
+import de.fraunhofer.iosb.ilt.configurable.editor.EditorInt;
 import de.fraunhofer.iosb.ilt.configurable.editor.EditorString;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.WatermarkFetcher;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.WatermarkStore;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.WatermarkStore.Watermark;
 import de.fraunhofer.iosb.ilt.sta.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.sta.Utils;
 import de.fraunhofer.iosb.ilt.sta.model.Datastream;
+import de.fraunhofer.iosb.ilt.sta.model.Id;
 import de.fraunhofer.iosb.ilt.sta.model.MultiDatastream;
 import de.fraunhofer.iosb.ilt.sta.model.Observation;
 import de.fraunhofer.iosb.ilt.sta.model.TimeObject;
+import de.fraunhofer.iosb.ilt.sta.service.SensorThingsService;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.time.Instant;
 import java.time.ZonedDateTime;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import org.slf4j.LoggerFactory;
 import org.threeten.extra.Interval;
 
@@ -46,6 +61,47 @@ public class TimeGenNewer implements TimeGen {
     @EditorString.EdOptsString(dflt = "2017-01-01T00:00:00Z")
     private String startTime;
 
+    @ConfigurableField(editor = EditorString.class, optional = true,
+            label = "Watermark File",
+            description = "A file to keep the latest phenomenonTime of each Datastream in between runs. "
+                    + "Use one file per server. Leave empty to always ask the server.")
+    @EditorString.EdOptsString(dflt = "")
+    private String watermarkFile;
+
+    @ConfigurableField(editor = EditorInt.class, optional = true,
+            label = "Watermark Max Age",
+            description = "The time (s) after which a stored watermark is checked against the server again.")
+    @EditorInt.EdOptsInt(dflt = 86400, min = 0, max = Integer.MAX_VALUE, step = 3600)
+    private int watermarkMaxAgeSeconds;
+
+    @ConfigurableField(editor = EditorBoolean.class, optional = true,
+            label = "Warm Up",
+            description = "On the first Datastream without phenomenonTime, fetch the latest phenomenonTime of all "
+                    + "Datastreams in paged requests, instead of one request per Datastream.")
+    @EditorBoolean.EdOptsBool()
+    private boolean warmUp;
+
+    @ConfigurableField(editor = EditorString.class, optional = true,
+            label = "Warm Up Filter",
+            description = "The filter limiting the Datastreams to warm up for.")
+    @EditorString.EdOptsString(dflt = "")
+    private String warmUpFilter;
+
+    private WatermarkStore watermarkStore;
+    private Map<Id, Watermark> warmUpWatermarks;
+
+    @Override
+    public void configure(JsonElement config, SensorThingsService context, Object edtCtx, ConfigEditor<?> configEditor) throws ConfigurationException {
+        TimeGen.super.configure(config, context, edtCtx, configEditor);
+        if (!Utils.isNullOrEmpty(watermarkFile)) {
+            try {
+                watermarkStore = WatermarkStore.open(Paths.get(watermarkFile));
+            } catch (IOException ex) {
+                throw new ConfigurationException("Failed to open watermark file " + watermarkFile, ex);
+            }
+        }
+    }
+
     @Override
     public Instant getInstant() {
         return ZonedDateTime.parse(startTime).toInstant();
@@ -64,21 +120,74 @@ public class TimeGenNewer implements TimeGen {
             }
             return phenomenonTime.getAsDateTime().plusSeconds(1).toInstant();
         }
+        String key = null;
+        if (watermarkStore != null) {
+            key = WatermarkStore.keyFor(ds);
+            Watermark watermark = watermarkStore.get(key);
+            if (watermark != null && watermark.isFresh(watermarkMaxAgeSeconds * 1000L)) {
+                return instantAfter(watermark);
+            }
+        }
+        if (warmUp) {
+            Watermark watermark = getWarmUpWatermarks(ds.getService()).get(ds.getId());
+            if (watermark != null) {
+                if (key != null) {
+                    watermarkStore.put(key, watermark.start, watermark.end);
+                }
+                return instantAfter(watermark);
+            }
+        }
         try {
             List<Observation> obsList = ds.observations().query().top(1).orderBy("phenomenonTime desc").list().toList();
             if (!obsList.isEmpty()) {
                 TimeObject phenomenonTime = obsList.get(0).getPhenomenonTime();
                 if (phenomenonTime.isInterval()) {
+                    if (key != null) {
+                        watermarkStore.put(key, phenomenonTime.getAsInterval().getStart(), phenomenonTime.getAsInterval().getEnd());
+                    }
                     return phenomenonTime.getAsInterval().getEnd();
                 }
+                if (key != null) {
+                    final Instant instant = phenomenonTime.getAsDateTime().toInstant();
+                    watermarkStore.put(key, instant, instant);
+                }
                 return phenomenonTime.getAsDateTime().plusSeconds(1).toInstant();
             }
+            if (key != null) {
+                watermarkStore.put(key, Instant.MIN, Instant.MIN);
+            }
         } catch (ServiceFailureException ex) {
             LOGGER.error("Failed to fetch last Observation.", ex);
         }
         return ZonedDateTime.parse(startTime).toInstant();
     }
 
+    private Instant instantAfter(Watermark watermark) {
+        if (watermark.isEmpty()) {
+            return ZonedDateTime.parse(startTime).toInstant();
+        }
+        if (watermark.end.isAfter(watermark.start)) {
+            return watermark.end;
+        }
+        return watermark.start.plusSeconds(1);
+    }
+
+    /**
+     * Fetches the watermarks of all Datastreams on the first call.
+     */
+    private synchronized Map<Id, Watermark> getWarmUpWatermarks(SensorThingsService service) {
+        if (warmUpWatermarks == null) {
+            try {
+                warmUpWatermarks = WatermarkFetcher.fetchDatastreams(service, warmUpFilter);
+            } catch (ServiceFailureException | RuntimeException ex) {
+                LOGGER.warn("Failed to warm up Datastream watermarks, fetching them one by one: {}", ex.getMessage());
+                LOGGER.debug("Details:", ex);
+                warmUpWatermarks = Collections.emptyMap();
+            }
+        }
+        return warmUpWatermarks;
+    }
+
     @Override
     public Instant getInstant(MultiDatastream mds) {
         if (mds.getPhenomenonTime() != null) {
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2026 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sensorthingsimporter.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Controls the size of batches sent to a server, based on how long the server
+ * takes to process them. The size grows towards the number of items the server
+ * can handle in the target duration, and is halved when a request fails. When
+ * a maximum payload is given, the size is also kept below the number of items
+ * that fit in it.
+ *
+ * @author hylke
+ */
+public class AdaptiveBatchSize {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdaptiveBatchSize.class.getName());
+
+    /**
+     * The weight of a new measurement in the moving averages.
+     */
+    private static final double ALPHA = 0.3;
+    /**
+     * Above this error rate, the batch size is not increased.
+     */
+    private static final double MAX_ERROR_RATE_FOR_GROWTH = 0.05;
+    /**
+     * The maximum factor the batch size can grow by in one step.
+     */
+    private static final double MAX_GROWTH = 2.0;
+
+    private final int minSize;
+    private final int maxSize;
+    private final double targetMillis;
+    private final long maxBytes;
+
+    private volatile int batchSize;
+    private double millisPerItem = -1;
+    private double bytesPerItem = -1;
+    private double errorRate = 0;
+
+    /**
+     * Create a new controller.
+     *
+     * @param minSize The minimum batch size.
+     * @param maxSize The maximum batch size.
+     * @param initialSize The batch size to start with.
+     * @param targetMillis The duration, in ms, a request should take.
+     */
+    public AdaptiveBatchSize(int minSize, int maxSize, int initialSize, long targetMillis) {
+        this(minSize, maxSize, initialSize, targetMillis, 0);
+    }
+
+    /**
+     * Create a new controller.
+     *
+     * @param minSize The minimum batch size.
+     * @param maxSize The maximum batch size.
+     * @param initialSize The batch size to start with.
+     * @param targetMillis The duration, in ms, a request should take.
+     * @param maxBytes The maximum payload of a request, in bytes, or 0 for no
+     * limit.
+     */
+    public AdaptiveBatchSize(int minSize, int maxSize, int initialSize, long targetMillis, long maxBytes) {
+        if (minSize < 1 || maxSize < minSize) {
+            throw new IllegalArgumentException("Invalid batch size bounds: " + minSize + " - " + maxSize);
+        }
+        if (targetMillis < 1) {
+            throw new IllegalArgumentException("Target duration must be positive, got " + targetMillis);
+        }
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.targetMillis = targetMillis;
+        this.maxBytes = maxBytes;
+        this.batchSize = clamp(initialSize);
+    }
+
+    /**
+     * @return The batch size to use for the next batch.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return The moving average of the fraction of items that failed.
+     */
+    public synchronized double getErrorRate() {
+        return errorRate;
+    }
+
+    /**
+     * Register a request that finished, successfully or not.
+     *
+     * @param items The number of items in the request.
+     * @param failedItems The number of items that the server did not accept.
+     * @param durationMillis The time the request took, in ms.
+     */
+    public void registerRequest(int items, int failedItems, long durationMillis) {
+        registerRequest(items, failedItems, durationMillis, 0);
+    }
+
+    /**
+     * Register a request that finished, successfully or not.
+     *
+     * @param items The number of items in the request.
+     * @param failedItems The number of items that the server did not accept.
+     * @param durationMillis The time the request took, in ms, without time
+     * spent on failed attempts.
+     * @param bytes The (estimated) payload of the request, or 0 if unknown.
+     */
+    public synchronized void registerRequest(int items, int failedItems, long durationMillis, long bytes) {
+        if (items <= 0) {
+            return;
+        }
+        if (bytes > 0) {
+            final double measuredBytes = bytes / (double) items;
+            bytesPerItem = bytesPerItem < 0 ? measuredBytes : ALPHA * measuredBytes + (1 - ALPHA) * bytesPerItem;
+        }
+        final double failedFraction = Math.min(1.0, (double) failedItems / items);
+        errorRate = ALPHA * failedFraction + (1 - ALPHA) * errorRate;
+        final double measured = Math.max(durationMillis, 1) / (double) items;
+        if (millisPerItem < 0) {
+            millisPerItem = measured;
+        } else {
+            millisPerItem = ALPHA * measured + (1 - ALPHA) * millisPerItem;
+        }
+
+        final int oldSize = batchSize;
+        int ideal = (int) Math.min(Integer.MAX_VALUE, targetMillis / millisPerItem);
+        ideal = (int) Math.min(ideal, oldSize * MAX_GROWTH);
+        if (maxBytes > 0 && bytesPerItem > 0) {
+            ideal = (int) Math.min(ideal, maxBytes / bytesPerItem);
+        }
+        if (ideal > oldSize && errorRate > MAX_ERROR_RATE_FOR_GROWTH) {
+            ideal = oldSize;
+        }
+        // Move halfway to the ideal size, so single outliers do not dominate.
+        setBatchSize(oldSize + (ideal - oldSize) / 2);
+    }
+
+    /**
+     * Register a request that failed completely. Halves the batch size.
+     */
+    public synchronized void registerFailure() {
+        errorRate = ALPHA + (1 - ALPHA) * errorRate;
+        setBatchSize(batchSize / 2);
+    }
+
+    private void setBatchSize(int newSize) {
+        final int oldSize = batchSize;
+        batchSize = clamp(newSize);
+        if (oldSize != batchSize) {
+            LOGGER.debug("Batch size changed from {} to {}, {} ms/item, error rate {}.", oldSize, batchSize, millisPerItem, errorRate);
+        }
+    }
+
+    private int clamp(int size) {
+        return Math.max(minSize, Math.min(maxSize, size));
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2026 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sensorthingsimporter.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The progress of an import, stored in a file so an interrupted import can
+ * resume where it stopped. Importers record their position with
+ * {@link #put(String, String)}. The position is only written to disk by
+ * {@link #save()}, which must only be called when everything up to the
+ * recorded position has been sent.
+ *
+ * @author hylke
+ */
+public class Checkpoint {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Checkpoint.class.getName());
+
+    private final Path file;
+    private final Properties values = new Properties();
+
+    /**
+     * Open the checkpoint in the given file. If the file exists, its values
+     * are loaded.
+     *
+     * @param file The file to store the checkpoint in.
+     * @throws IOException If the file exists but can not be read.
+     */
+    public Checkpoint(Path file) throws IOException {
+        this.file = file;
+        if (Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                values.load(reader);
+            }
+            LOGGER.info("Resuming from checkpoint {} with {} entries.", file, values.size());
+        }
+    }
+
+    /**
+     * @return true if the checkpoint has no recorded progress.
+     */
+    public synchronized boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    public synchronized String get(String key) {
+        return values.getProperty(key);
+    }
+
+    public synchronized void put(String key, String value) {
+        values.setProperty(key, value);
+    }
+
+    /**
+     * Atomically write the current values to disk.
+     *
+     * @throws IOException If the file could not be written.
+     */
+    public synchronized void save() throws IOException {
+        final Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            values.store(writer, "SensorThingsImporter checkpoint");
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LOGGER.debug("Saved checkpoint with {} entries.", values.size());
+    }
+
+    /**
+     * Forget all progress, and delete the file. Used when an import finished
+     * successfully.
+     *
+     * @throws IOException If the file could not be deleted.
+     */
+    public synchronized void delete() throws IOException {
+        values.clear();
+        Files.deleteIfExists(file);
+    }
+
+}
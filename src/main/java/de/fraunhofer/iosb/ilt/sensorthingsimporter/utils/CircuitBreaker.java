@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2026 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sensorthingsimporter.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A circuit breaker that stops requests to a server that is down. After a
+ * number of consecutive failures the breaker opens, and all requests wait
+ * until the open period has passed. Then a single request is let through to
+ * probe the server. If it succeeds the breaker closes, if it fails the breaker
+ * opens again. A probe that does not report back within the open period is
+ * considered lost, and another request is let through.
+ *
+ * @author hylke
+ */
+public class CircuitBreaker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreaker.class.getName());
+
+    public static enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openUntil;
+    private long probeStarted;
+    private long openCount;
+
+    /**
+     * Create a new circuit breaker.
+     *
+     * @param failureThreshold The number of consecutive failures after which
+     * the breaker opens. 0 to never open.
+     * @param openMillis The time the breaker stays open before a probe
+     * request is allowed.
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Wait until a request may be sent. If the breaker is open, this blocks
+     * until the open period has passed and the calling thread is selected to
+     * probe the server, or until another thread closed the breaker.
+     *
+     * @throws InterruptedException If the thread is interrupted while
+     * waiting.
+     */
+    public synchronized void awaitPermission() throws InterruptedException {
+        while (true) {
+            switch (state) {
+                case CLOSED:
+                    return;
+
+                case OPEN:
+                    final long waitMillis = openUntil - System.currentTimeMillis();
+                    if (waitMillis <= 0) {
+                        LOGGER.info("Circuit breaker half-open, probing server.");
+                        state = State.HALF_OPEN;
+                        probeStarted = System.currentTimeMillis();
+                        return;
+                    }
+                    wait(waitMillis);
+                    break;
+
+                case HALF_OPEN:
+                default:
+                    final long probeWait = probeStarted + openMillis - System.currentTimeMillis();
+                    if (probeWait <= 0) {
+                        LOGGER.warn("Circuit breaker probe did not report back in {} ms, probing again.", openMillis);
+                        probeStarted = System.currentTimeMillis();
+                        return;
+                    }
+                    wait(probeWait);
+            }
+        }
+    }
+
+    /**
+     * Wait while the breaker is open. Unlike {@link #awaitPermission()} this
+     * returns as soon as the open period has passed, without selecting a
+     * probe.
+     *
+     * @throws InterruptedException If the thread is interrupted while
+     * waiting.
+     */
+    public synchronized void awaitNotOpen() throws InterruptedException {
+        long waitMillis;
+        while (state == State.OPEN && (waitMillis = openUntil - System.currentTimeMillis()) > 0) {
+            wait(waitMillis);
+        }
+    }
+
+    /**
+     * Register a request that reached the server.
+     */
+    public synchronized void registerSuccess() {
+        consecutiveFailures = 0;
+        if (state != State.CLOSED) {
+            LOGGER.info("Circuit breaker closed, server is back.");
+            state = State.CLOSED;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Register a request that failed because the server is unavailable.
+     */
+    public synchronized void registerFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (failureThreshold > 0 && state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            LOGGER.warn("Circuit breaker open after {} consecutive failures, pausing for {} ms.", consecutiveFailures, openMillis);
+            state = State.OPEN;
+            openUntil = System.currentTimeMillis() + openMillis;
+            openCount++;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Give up the probe without a result, for instance because the probe
+     * request failed with an unexpected exception. The breaker opens again
+     * with an open period that has already passed, so a waiting thread
+     * becomes the new probe.
+     */
+    public synchronized void releaseProbe() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+            openUntil = System.currentTimeMillis();
+            notifyAll();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return The number of times the breaker opened.
+     */
+    public synchronized long getOpenCount() {
+        return openCount;
+    }
+
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2026 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sensorthingsimporter.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only, segmented spool on disk, holding serialised DataArray
+ * batches that could not be sent to the server. Each batch is stored as one
+ * line, prefixed with the number of times the server rejected (parts of) it.
+ * Segments are deleted once all batches in them are sent.
+ *
+ * @author hylke
+ */
+public class DataArraySpool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DataArraySpool.class.getName());
+    private static final String SEGMENT_PREFIX = "spool-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final char SEPARATOR = '\t';
+
+    /**
+     * Sends a batch to the server.
+     */
+    public static interface BatchSender {
+
+        /**
+         * Send the given batch to the server.
+         *
+         * @param batch The serialised batch.
+         * @return The serialised part of the batch that the server rejected,
+         * or null if the server accepted all of it.
+         * @throws IOException If the batch could not be sent at all.
+         */
+        public String send(String batch) throws IOException;
+    }
+
+    private final Path directory;
+    private final long maxSegmentBytes;
+    private final int maxAttempts;
+    private final ReentrantLock replayLock = new ReentrantLock();
+
+    private long currentSegment;
+
+    /**
+     * Open or create the spool in the given directory.
+     *
+     * @param directory The directory to store the segment files in.
+     * @param maxSegmentBytes The size after which a new segment is started.
+     * @param maxAttempts The number of times the server may reject a batch
+     * before it is dropped.
+     * @throws IOException If the directory can not be created or read.
+     */
+    public DataArraySpool(Path directory, long maxSegmentBytes, int maxAttempts) throws IOException {
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxAttempts = maxAttempts;
+        Files.createDirectories(directory);
+        List<Long> segments = listSegmentNumbers();
+        currentSegment = segments.isEmpty() ? 0 : segments.get(segments.size() - 1);
+        if (!segments.isEmpty()) {
+            LOGGER.info("Found {} spool segments in {}.", segments.size(), directory);
+        }
+    }
+
+    /**
+     * Append a batch to the spool, and force it to disk.
+     *
+     * @param batch The serialised batch. Must not contain newlines.
+     * @param attempts The number of times the server rejected the batch.
+     * @throws IOException If the batch could not be written.
+     */
+    public synchronized void append(String batch, int attempts) throws IOException {
+        if (attempts > maxAttempts) {
+            LOGGER.error("Dropping batch of {} characters from spool {}, rejected {} times.", batch.length(), directory, attempts - 1);
+            LOGGER.debug("Dropped batch: {}", batch);
+            return;
+        }
+        if (batch.indexOf('\n') >= 0) {
+            throw new IllegalArgumentException("Batch must not contain newlines.");
+        }
+        byte[] line = (Integer.toString(attempts) + SEPARATOR + batch + '\n').getBytes(StandardCharsets.UTF_8);
+        Path segment = segmentPath(currentSegment);
+        if (Files.exists(segment) && Files.size(segment) + line.length > maxSegmentBytes) {
+            currentSegment++;
+            segment = segmentPath(currentSegment);
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(line);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * @return true if there are no batches in the spool.
+     * @throws IOException If the directory can not be read.
+     */
+    public boolean isEmpty() throws IOException {
+        return listSegmentNumbers().isEmpty();
+    }
+
+    /**
+     * Send all spooled batches to the server, oldest first. Stops at the first
+     * batch that can not be sent at all, keeping it and all later batches.
+     * Parts of batches that the server rejects are appended to the spool
+     * again. If a replay is already running in another Thread, returns
+     * immediately.
+     *
+     * @param sender The sender used to send batches.
+     * @return The number of batches that were sent.
+     * @throws IOException If the spool files could not be read or written.
+     */
+    public int replay(BatchSender sender) throws IOException {
+        if (!replayLock.tryLock()) {
+            return 0;
+        }
+        try {
+            final List<Long> segments;
+            synchronized (this) {
+                segments = listSegmentNumbers();
+                if (segments.isEmpty()) {
+                    return 0;
+                }
+                // New and re-spooled batches go into a new segment.
+                currentSegment = segments.get(segments.size() - 1) + 1;
+            }
+            int count = 0;
+            for (long segmentNr : segments) {
+                int sent = replaySegment(segmentPath(segmentNr), sender);
+                if (sent < 0) {
+                    return count - sent - 1;
+                }
+                count += sent;
+            }
+            return count;
+        } finally {
+            replayLock.unlock();
+        }
+    }
+
+    /**
+     * Replays one segment.
+     *
+     * @return The number of batches sent if the entire segment was sent, or
+     * -1 - the number of batches sent if sending failed.
+     */
+    private int replaySegment(Path segment, BatchSender sender) throws IOException {
+        int count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(segment, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                int sepIdx = line.indexOf(SEPARATOR);
+                int attempts = Integer.parseInt(line.substring(0, sepIdx));
+                String batch = line.substring(sepIdx + 1);
+                String rejected;
+                try {
+                    rejected = sender.send(batch);
+                } catch (IOException exc) {
+                    LOGGER.warn("Failed to replay spooled batch, keeping spool: {}", exc.getMessage());
+                    keepRemaining(segment, line, reader);
+                    return -1 - count;
+                }
+                if (rejected != null) {
+                    append(rejected, attempts + 1);
+                }
+                count++;
+            }
+        }
+        Files.delete(segment);
+        return count;
+    }
+
+    private void keepRemaining(Path segment, String firstLine, BufferedReader reader) throws IOException {
+        Path temp = segment.resolveSibling(segment.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(firstLine);
+            writer.write('\n');
+            String line;
+            while ((line = reader.readLine()) != null) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+        Files.move(temp, segment, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path segmentPath(long segmentNr) {
+        return directory.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, segmentNr, SEGMENT_SUFFIX));
+    }
+
+    private List<Long> listSegmentNumbers() throws IOException {
+        List<Long> result = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                String number = name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length());
+                try {
+                    result.add(Long.valueOf(number));
+                } catch (NumberFormatException exc) {
+                    LOGGER.warn("Ignoring unexpected file in spool directory: {}", path);
+                }
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+}
@@ -17,48 +17,81 @@
  */
 package de.fraunhofer.iosb.ilt.sensorthingsimporter.utils;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import de.fraunhofer.iosb.ilt.sta.ServiceFailureException;
 import de.fraunhofer.iosb.ilt.sta.Utils;
 import de.fraunhofer.iosb.ilt.sta.dao.BaseDao;
+import de.fraunhofer.iosb.ilt.sta.jackson.ObjectMapperFactory;
 import de.fraunhofer.iosb.ilt.sta.model.Entity;
 import de.fraunhofer.iosb.ilt.sta.model.ext.EntityList;
 import de.fraunhofer.iosb.ilt.sta.query.Query;
+import de.fraunhofer.iosb.ilt.sta.service.SensorThingsService;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
+ * Caches entities by localId and by name. The cache is thread safe, and can
+ * be written to a snapshot file, so that later runs can start without
+ * loading everything from the server.
  *
  * @param <T> The entity type this cache caches.
  * @param <U> The type of the localId.
  */
 public class EntityCache<U, T extends Entity<T>> {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(EntityCache.class.getName());
+    private static final int PAGE_SIZE = 10000;
+
     private final Map<U, T> entitiesByLocalId = new LinkedHashMap<>();
     private final Map<String, T> entitiesByName = new LinkedHashMap<>();
 
     private final PropertyExtractor<U, T> localIdExtractor;
     private final PropertyExtractor<String, T> nameExtractor;
 
+    private int loadThreads = 1;
+    /**
+     * The entity with the highest id loaded from the server so far.
+     */
+    private volatile T lastLoaded;
+
     public EntityCache(PropertyExtractor<U, T> localIdExtractor, PropertyExtractor<String, T> nameExtractor) {
         this.localIdExtractor = localIdExtractor;
         this.nameExtractor = nameExtractor;
     }
 
-    public T get(U localId) {
+    public synchronized T get(U localId) {
         return entitiesByLocalId.get(localId);
     }
 
-    public T getByName(String name) {
+    public synchronized T getByName(String name) {
         return entitiesByName.get(name);
     }
 
-    public boolean containsId(U localId) {
+    public synchronized boolean containsId(U localId) {
         return entitiesByLocalId.containsKey(localId);
     }
 
-    public boolean isEmpty() {
+    public synchronized boolean isEmpty() {
         return entitiesByLocalId.isEmpty();
     }
 
@@ -66,7 +99,96 @@ public class EntityCache<U, T extends Entity<T>> {
         return load(dao, filter, "", "");
     }
 
+    /**
+     * Load all entities matching the given filter. With more than one load
+     * thread, the number of entities is requested with the first page, and
+     * the other pages are fetched in parallel using $skip.
+     *
+     * @param dao The dao to load the entities from.
+     * @param filter The filter to use, may be empty.
+     * @param select The properties to select, must include the id.
+     * @param expand The expand to use, may be empty.
+     * @return The number of entities with a localId that were loaded.
+     * @throws ServiceFailureException If loading failed.
+     */
     public int load(BaseDao<T> dao, String filter, String select, String expand) throws ServiceFailureException {
+        if (loadThreads <= 1) {
+            return loadSequential(dao, filter, select, expand);
+        }
+        EntityList<T> firstPage = createQuery(dao, filter, select, expand).count().list();
+        final long total = firstPage.getCount();
+        if (total < 0 || !firstPage.hasNextLink()) {
+            return addAll(firstPage.fullIterator());
+        }
+        final List<T> firstEntities = firstPage.toList();
+        final int pageSize = firstEntities.size();
+        int count = addAll(firstEntities.iterator());
+        final List<Future<List<T>>> pages = new ArrayList<>();
+        final ExecutorService executor = VirtualThreads.newExecutor("EntityCache-", false, loadThreads);
+        try {
+            for (long skip = pageSize; skip < total; skip += pageSize) {
+                final int pageSkip = (int) skip;
+                pages.add(executor.submit(() -> createQuery(dao, filter, select, expand).top(pageSize).skip(pageSkip).list().toList()));
+            }
+            for (Future<List<T>> page : pages) {
+                count += addAll(page.get().iterator());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ServiceFailureException("Interrupted while loading entities.", ex);
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof ServiceFailureException) {
+                throw (ServiceFailureException) cause;
+            }
+            throw new ServiceFailureException("Failed to load entities: " + cause.getMessage(), cause);
+        } finally {
+            executor.shutdownNow();
+        }
+        LOGGER.debug("Loaded {} pages of {} using {} threads.", pages.size() + 1, pageSize, loadThreads);
+        if (hasNumericId(lastLoaded)) {
+            // Catch entities created while loading.
+            count += refresh(dao, filter, select, expand);
+        }
+        return count;
+    }
+
+    /**
+     * Load only the entities with an id higher than the highest id loaded so
+     * far. This finds entities created since the last load, but not changes
+     * to existing entities. It requires the server to use numeric ids that
+     * increase for new entities. If nothing was loaded yet, or the ids are
+     * not numeric, this loads everything.
+     *
+     * @param dao The dao to load the entities from.
+     * @param filter The filter to use, may be empty.
+     * @param select The properties to select, must include the id.
+     * @param expand The expand to use, may be empty.
+     * @return The number of entities with a localId that were loaded.
+     * @throws ServiceFailureException If loading failed.
+     */
+    public int refresh(BaseDao<T> dao, String filter, String select, String expand) throws ServiceFailureException {
+        final T last = lastLoaded;
+        if (!hasNumericId(last)) {
+            return load(dao, filter, select, expand);
+        }
+        String newFilter = "id gt " + last.getId().getUrl();
+        if (!Utils.isNullOrEmpty(filter)) {
+            newFilter = "(" + filter + ") and " + newFilter;
+        }
+        return loadSequential(dao, newFilter, select, expand);
+    }
+
+    private static boolean hasNumericId(Entity<?> entity) {
+        return entity != null && entity.getId().getValue() instanceof Number;
+    }
+
+    private int loadSequential(BaseDao<T> dao, String filter, String select, String expand) throws ServiceFailureException {
+        EntityList<T> entities = createQuery(dao, filter, select, expand).list();
+        return addAll(entities.fullIterator());
+    }
+
+    private Query<T> createQuery(BaseDao<T> dao, String filter, String select, String expand) {
         Query<T> query = dao.query();
         if (!select.isEmpty()) {
             query.select(select);
@@ -77,23 +199,39 @@ public class EntityCache<U, T extends Entity<T>> {
         if (!Utils.isNullOrEmpty(filter)) {
             query.filter(filter);
         }
-        EntityList<T> entities = query.top(10000).orderBy("id asc").list();
-        Iterator<T> it = entities.fullIterator();
+        return query.top(PAGE_SIZE).orderBy("id asc");
+    }
+
+    /**
+     * Adds the given loaded entities, in id order.
+     */
+    private int addAll(Iterator<T> it) {
         int count = 0;
         while (it.hasNext()) {
             T entitiy = it.next();
             if (add(entitiy)) {
                 count++;
             }
+            if (entitiy.getId() != null) {
+                lastLoaded = entitiy;
+            }
         }
         return count;
     }
 
+    /**
+     * @param loadThreads The number of pages to fetch in parallel when
+     * loading.
+     */
+    public void setLoadThreads(int loadThreads) {
+        this.loadThreads = loadThreads;
+    }
+
     public void add(Collection<T> entities) {
         entities.stream().forEach(e -> add(e));
     }
 
-    public boolean add(T entity) {
+    public synchronized boolean add(T entity) {
         boolean hasLocalId = false;
         try {
             U localId = localIdExtractor.extractFrom(entity);
@@ -119,16 +257,159 @@ public class EntityCache<U, T extends Entity<T>> {
      * @return the old value for the given localId, or null if there was no old
      * value registered.
      */
-    public T registerNull(U localId) {
+    public synchronized T registerNull(U localId) {
         return entitiesByLocalId.put(localId, null);
     }
 
-    public Collection<T> valuesWithLocalId() {
-        return entitiesByLocalId.values();
+    /**
+     * @return A copy of the entities with a localId.
+     */
+    public synchronized Collection<T> valuesWithLocalId() {
+        return new ArrayList<>(entitiesByLocalId.values());
+    }
+
+    /**
+     * @return A copy of the entities with a name.
+     */
+    public synchronized Collection<T> valuesWithName() {
+        return new ArrayList<>(entitiesByName.values());
+    }
+
+    /**
+     * Update the content of this cache with a fresh load from the server, in
+     * a background Thread. Entities added while the load runs are kept, as
+     * are entities that were deleted from the server. Afterwards, the
+     * snapshot is written, if a file is given.
+     *
+     * @param dao The dao to load the entities from.
+     * @param filter The filter to use, may be empty.
+     * @param select The properties to select, must include the id.
+     * @param expand The expand to use, may be empty.
+     * @param snapshotFile The file to write the snapshot to, or null.
+     * @return The Future giving the number of entities with a localId that
+     * were loaded.
+     */
+    public Future<Integer> revalidate(BaseDao<T> dao, String filter, String select, String expand, Path snapshotFile) {
+        final ExecutorService executor = Executors.newSingleThreadExecutor(VirtualThreads.factory("EntityCache-revalidate-", false));
+        try {
+            return executor.submit(() -> {
+                try {
+                    final EntityCache<U, T> fresh = new EntityCache<>(localIdExtractor, nameExtractor);
+                    fresh.setLoadThreads(loadThreads);
+                    int count = fresh.load(dao, filter, select, expand);
+                    mergeFrom(fresh);
+                    if (hasNumericId(lastLoaded)) {
+                        // Entities created while revalidating.
+                        count += refresh(dao, filter, select, expand);
+                    }
+                    if (snapshotFile != null) {
+                        saveSnapshot(snapshotFile);
+                    }
+                    LOGGER.debug("Revalidated {} entities.", count);
+                    return count;
+                } catch (ServiceFailureException | IOException | RuntimeException exc) {
+                    LOGGER.error("Failed to revalidate cache: {}", exc.getMessage());
+                    LOGGER.debug("Details:", exc);
+                    throw exc;
+                }
+            });
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Merges the freshly loaded entities into this cache. Entries added while
+     * loading, including null markers for localIds not in the fresh load, are
+     * kept.
+     */
+    private synchronized void mergeFrom(EntityCache<U, T> fresh) {
+        entitiesByLocalId.putAll(fresh.entitiesByLocalId);
+        entitiesByName.putAll(fresh.entitiesByName);
+        final T freshLast = fresh.lastLoaded;
+        if (lastLoaded == null || freshLast != null && freshLast.getId().compareTo(lastLoaded.getId()) > 0) {
+            lastLoaded = freshLast;
+        }
+    }
+
+    /**
+     * Write all cached entities to the given file. The first line holds the
+     * entity with the highest loaded id, or null. Each following line holds
+     * one cached entity, with the properties that were selected when loading.
+     *
+     * @param file The file to write to.
+     * @throws IOException If the file could not be written.
+     */
+    public void saveSnapshot(Path file) throws IOException {
+        final List<T> entities = new ArrayList<>();
+        final Set<T> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        synchronized (this) {
+            for (T entity : entitiesByLocalId.values()) {
+                if (entity != null && seen.add(entity)) {
+                    entities.add(entity);
+                }
+            }
+            for (T entity : entitiesByName.values()) {
+                if (entity != null && seen.add(entity)) {
+                    entities.add(entity);
+                }
+            }
+        }
+        final Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        final ObjectMapper mapper = ObjectMapperFactory.get();
+        final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(mapper.writeValueAsString(lastLoaded));
+            writer.write('\n');
+            for (T entity : entities) {
+                writer.write(mapper.writeValueAsString(entity));
+                writer.write('\n');
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LOGGER.debug("Saved {} entities to snapshot {}.", entities.size(), file);
     }
 
-    public Collection<T> valuesWithName() {
-        return entitiesByName.values();
+    /**
+     * Add the entities from a snapshot written by {@link #saveSnapshot(Path)}.
+     * Use {@link #refresh} afterwards to fetch entities created since the
+     * snapshot was written, and {@link #revalidate} to pick up changes.
+     *
+     * @param file The file to read.
+     * @param entityClass The class of the entities.
+     * @param service The service to set on the entities.
+     * @return The number of entities with a localId that were read.
+     * @throws IOException If the file could not be read.
+     */
+    public int loadSnapshot(Path file, Class<T> entityClass, SensorThingsService service) throws IOException {
+        final ObjectMapper mapper = ObjectMapperFactory.get();
+        int count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null) {
+                return 0;
+            }
+            final T last = mapper.readValue(line, entityClass);
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                final T entity = mapper.readValue(line, entityClass);
+                entity.setService(service);
+                if (add(entity)) {
+                    count++;
+                }
+            }
+            if (last != null && last.getId() != null) {
+                last.setService(service);
+                lastLoaded = last;
+            }
+        }
+        LOGGER.info("Loaded {} entities from snapshot {}.", count, file);
+        return count;
     }
 
     public static interface PropertyExtractor<U, T extends Entity<T>> {
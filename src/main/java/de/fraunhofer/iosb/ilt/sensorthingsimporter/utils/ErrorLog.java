@@ -49,29 +49,54 @@ public class ErrorLog implements AnnotatedConfigurable<Object, Object> {
     @EditorInt.EdOptsInt(dflt = DEFAULT_MAX_FILES_PER_TYPE, max = 999)
     private int maxLines;
 
+    private final ErrorLog parent;
     private Map<String, ErrorType> errorTypes = new HashMap<>();
     private String currentFileName = "";
     private int currentLine;
     private int errorCount = 0;
 
     public ErrorLog() {
+        this.parent = null;
     }
 
     public ErrorLog(int maxFiles, int maxLines) {
+        this.parent = null;
         this.maxFiles = maxFiles;
         this.maxLines = maxLines;
     }
 
+    private ErrorLog(ErrorLog parent) {
+        this.parent = parent;
+        this.currentFileName = parent.currentFileName;
+    }
+
+    /**
+     * Creates a log with its own current file name and line, that adds all
+     * errors to this log. Used by worker Threads that handle different parts
+     * of a file at the same time.
+     *
+     * @return a new child log.
+     */
+    public ErrorLog createChild() {
+        return new ErrorLog(this);
+    }
+
     public void addError(String type) {
         addError(type, currentFileName, currentLine);
     }
 
-    public synchronized void addError(String type, String fileName, int line) {
-        ErrorType errorType = errorTypes.computeIfAbsent(type, (t) -> {
-            return new ErrorType(t, maxFiles, maxLines);
-        });
-        errorType.addErrorInFile(fileName, line);
-        errorCount++;
+    public void addError(String type, String fileName, int line) {
+        if (parent != null) {
+            parent.addError(type, fileName, line);
+            return;
+        }
+        synchronized (this) {
+            ErrorType errorType = errorTypes.computeIfAbsent(type, (t) -> {
+                return new ErrorType(t, maxFiles, maxLines);
+            });
+            errorType.addErrorInFile(fileName, line);
+            errorCount++;
+        }
     }
 
     public synchronized void clear() {
@@ -96,12 +121,15 @@ public class ErrorLog implements AnnotatedConfigurable<Object, Object> {
     }
 
     public void logErrors() {
-        if (errorCount > 0) {
+        if (getErrorCount() > 0) {
             LOGGER.info(getErrors());
         }
     }
 
     public String getErrors() {
+        if (parent != null) {
+            return parent.getErrors();
+        }
         var sb = new StringBuilder();
         for (var errorType : errorTypes.values()) {
             sb.append(errorType.getType())
@@ -118,6 +146,9 @@ public class ErrorLog implements AnnotatedConfigurable<Object, Object> {
     }
 
     public int getErrorCount() {
+        if (parent != null) {
+            return parent.getErrorCount();
+        }
         return errorCount;
     }
 
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2026 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sensorthingsimporter.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import de.fraunhofer.iosb.ilt.sta.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.sta.StatusCodeException;
+import de.fraunhofer.iosb.ilt.sta.Utils;
+import de.fraunhofer.iosb.ilt.sta.jackson.ObjectMapperFactory;
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import de.fraunhofer.iosb.ilt.sta.service.SensorThingsService;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends a list of changes to Observations to the server in one OData JSON
+ * $batch request. The changes are independent, a failing change does not
+ * affect the others.
+ *
+ * @author hylke
+ */
+public class JsonBatch {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JsonBatch.class.getName());
+    private static final String PATH_BATCH = "$batch";
+    private static final String PATH_OBSERVATIONS = "Observations";
+
+    public static enum Method {
+        PATCH,
+        DELETE
+    }
+
+    /**
+     * A single change in a batch.
+     */
+    public static class Change {
+
+        private final Method method;
+        private final String url;
+        private final JsonNode body;
+
+        private Change(Method method, String url, JsonNode body) {
+            this.method = method;
+            this.url = url;
+            this.body = body;
+        }
+
+        public Method getMethod() {
+            return method;
+        }
+
+        /**
+         * Creates a change that updates the given Observation.
+         *
+         * @param obs The Observation to update. Must have an id.
+         * @return The change.
+         */
+        public static Change update(Observation obs) {
+            final ObjectNode body = ObjectMapperFactory.get().valueToTree(obs);
+            body.remove("@iot.id");
+            body.remove("@iot.selfLink");
+            return new Change(Method.PATCH, urlFor(obs), body);
+        }
+
+        /**
+         * Creates a change that deletes the given Observation.
+         *
+         * @param obs The Observation to delete. Must have an id.
+         * @return The change.
+         */
+        public static Change delete(Observation obs) {
+            return new Change(Method.DELETE, urlFor(obs), null);
+        }
+
+        private static String urlFor(Observation obs) {
+            return PATH_OBSERVATIONS + "(" + obs.getId().getUrl() + ")";
+        }
+    }
+
+    private JsonBatch() {
+        // Utility class.
+    }
+
+    /**
+     * Send the given changes in one batch request.
+     *
+     * @param service The service to send the changes to.
+     * @param changes The changes to send.
+     * @return For each change, whether the server accepted it.
+     * @throws ServiceFailureException If the batch request as a whole failed.
+     */
+    public static boolean[] send(SensorThingsService service, List<Change> changes) throws ServiceFailureException {
+        final ObjectMapper mapper = ObjectMapperFactory.get();
+        final ObjectNode batch = mapper.createObjectNode();
+        final ArrayNode requests = batch.putArray("requests");
+        int idx = 0;
+        for (Change change : changes) {
+            final ObjectNode request = requests.addObject();
+            request.put("id", Integer.toString(idx++));
+            request.put("method", change.method.name().toLowerCase());
+            request.put("url", change.url);
+            if (change.body != null) {
+                request.set("body", change.body);
+            }
+        }
+
+        final String url = service.getFullPath(PATH_BATCH).toString();
+        final HttpPost post = new HttpPost(url);
+        final String content;
+        try {
+            post.setEntity(new StringEntity(mapper.writeValueAsString(batch), ContentType.APPLICATION_JSON));
+            try (CloseableHttpResponse response = service.execute(post)) {
+                final int code = response.getStatusLine().getStatusCode();
+                content = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+                if (code < 200 || code >= 300) {
+                    throw new StatusCodeException(url, code, response.getStatusLine().getReasonPhrase(), content);
+                }
+            }
+        } catch (IOException exc) {
+            throw new ServiceFailureException(exc);
+        }
+        return parseResponse(mapper, content, changes.size());
+    }
+
+    private static boolean[] parseResponse(ObjectMapper mapper, String content, int count) throws ServiceFailureException {
+        final boolean[] result = new boolean[count];
+        final JsonNode responses;
+        try {
+            responses = mapper.readTree(content).get("responses");
+        } catch (IOException exc) {
+            // Not retryable, re-sending the batch gives the same response.
+            throw new ServiceFailureException("Failed to parse batch response (" + exc.getMessage() + "): " + Utils.cleanForLogging(content, 200));
+        }
+        if (responses == null) {
+            throw new ServiceFailureException("Batch response has no responses: " + Utils.cleanForLogging(content, 200));
+        }
+        int failed = 0;
+        int unknown = 0;
+        for (JsonNode response : responses) {
+            final int idx = response.path("id").asInt(-1);
+            final int status = response.path("status").asInt(-1);
+            if (idx < 0 || idx >= count || status < 0) {
+                if (unknown++ == 0) {
+                    LOGGER.warn("Ignoring batch response without valid id or status: {}", Utils.cleanForLogging(response.toString(), 200));
+                }
+                continue;
+            }
+            result[idx] = status >= 200 && status < 300;
+            if (!result[idx] && failed++ == 0) {
+                LOGGER.warn("Batch change failed with status {}: {}", status, response.get("body"));
+            }
+        }
+        if (failed > 0) {
+            LOGGER.warn("{} of {} changes in batch failed.", failed, count);
+        }
+        if (unknown > 0) {
+            LOGGER.warn("Ignored {} batch responses without valid id or status, their changes count as failed.", unknown);
+        }
+        return result;
+    }
+
+}
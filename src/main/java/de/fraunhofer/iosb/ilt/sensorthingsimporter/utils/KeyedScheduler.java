@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2026 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sensorthingsimporter.utils;
+
+import java.util.Comparator;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Schedules work items that are grouped by a key, such that the items for one
+ * key are processed by at most one worker at a time, in the order they were
+ * submitted. Each key has its own queue. A key is handed to a worker as soon
+ * as it has work, is not owned by another worker, and is not blocked.
+ *
+ * Ownership of a key is tracked with an atomic flag per key, there is no
+ * global lock. If a key is blocked by something outside the scheduler, the
+ * scheduler must be notified with {@link #wakeUp(java.lang.Object)} when the
+ * block is lifted.
+ *
+ * @author hylke
+ * @param <K> The type of the keys.
+ * @param <W> The type of the work items.
+ */
+public class KeyedScheduler<K, W> {
+
+    private class Slot {
+
+        private final K key;
+        private final Queue<W> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean owned = new AtomicBoolean(false);
+
+        public Slot(K key) {
+            this.key = key;
+        }
+    }
+
+    private final ConcurrentMap<K, Slot> slots;
+    private final BlockingQueue<Slot> ready = new LinkedBlockingQueue<>();
+    private final Predicate<K> blocked;
+    private final Semaphore capacity;
+    private final AtomicLong pendingCount = new AtomicLong();
+    private final Object idleMonitor = new Object();
+
+    /**
+     * Create a new scheduler.
+     *
+     * @param comparator The comparator used to identify keys.
+     * @param blocked Tests if a key is blocked by something outside the
+     * scheduler.
+     * @param capacity The maximum number of work items that can be pending.
+     * {@link #submit(java.lang.Object, java.lang.Object)} blocks while the
+     * scheduler is full.
+     */
+    public KeyedScheduler(Comparator<? super K> comparator, Predicate<K> blocked, int capacity) {
+        this.slots = new ConcurrentSkipListMap<>(comparator);
+        this.blocked = blocked;
+        this.capacity = new Semaphore(Math.max(1, capacity));
+    }
+
+    /**
+     * Add a work item for the given key. Blocks while the scheduler is full.
+     *
+     * @param key The key of the work item.
+     * @param work The work item.
+     * @throws InterruptedException If interrupted while waiting for space.
+     */
+    public void submit(K key, W work) throws InterruptedException {
+        capacity.acquire();
+        final Slot slot = slots.computeIfAbsent(key, Slot::new);
+        pendingCount.incrementAndGet();
+        slot.pending.add(work);
+        trySchedule(slot);
+    }
+
+    /**
+     * Notify the scheduler that the given key may no longer be blocked.
+     *
+     * @param key The key to re-check.
+     */
+    public void wakeUp(K key) {
+        final Slot slot = slots.get(key);
+        if (slot != null) {
+            trySchedule(slot);
+        }
+    }
+
+    private void trySchedule(Slot slot) {
+        if (slot.pending.isEmpty() || blocked.test(slot.key)) {
+            return;
+        }
+        if (slot.owned.compareAndSet(false, true)) {
+            ready.add(slot);
+        }
+    }
+
+    /**
+     * Take a key that has work, and process its next pending work item. The
+     * key is only handed out again when it is not blocked, since processing
+     * an item may block the key until its results are out of the way.
+     *
+     * @param timeout The maximum time to wait for a key with work.
+     * @param unit The unit of the timeout.
+     * @param worker The worker to process the item with.
+     * @return true if a work item was processed, false if the timeout passed.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean runNext(long timeout, TimeUnit unit, BiConsumer<K, W> worker) throws InterruptedException {
+        final Slot slot = ready.poll(timeout, unit);
+        if (slot == null) {
+            return false;
+        }
+        try {
+            final W work = slot.pending.poll();
+            if (work != null) {
+                try {
+                    worker.accept(slot.key, work);
+                } finally {
+                    capacity.release();
+                    if (pendingCount.decrementAndGet() == 0) {
+                        synchronized (idleMonitor) {
+                            idleMonitor.notifyAll();
+                        }
+                    }
+                }
+            }
+        } finally {
+            slot.owned.set(false);
+            // Re-checks blocked, and picks up work added in the mean time.
+            trySchedule(slot);
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of work items that are not yet processed.
+     */
+    public long getPendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * Wait until all submitted work items have been processed.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public void awaitIdle() throws InterruptedException {
+        synchronized (idleMonitor) {
+            while (pendingCount.get() > 0) {
+                idleMonitor.wait(1000);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2026 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sensorthingsimporter.utils;
+
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Tracks the estimated heap usage of Observations that are read, but not yet
+ * sent to the server. Producers block when the budget is used up, until
+ * consumers release memory.
+ *
+ * @author hylke
+ */
+public class MemoryBudget {
+
+    /**
+     * The estimated size of an Observation without result and parameters,
+     * including its times and the list entries that reference it.
+     */
+    private static final long OBSERVATION_OVERHEAD = 320;
+    private static final long OBJECT_OVERHEAD = 24;
+    private static final long STRING_OVERHEAD = 40;
+    private static final long ENTRY_OVERHEAD = 48;
+    private static final int MAX_DEPTH = 5;
+
+    private final long budgetBytes;
+    private long usedBytes;
+
+    /**
+     * @param budgetBytes The number of bytes that may be in use.
+     */
+    public MemoryBudget(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Reserve the given number of bytes, without waiting.
+     *
+     * @param bytes The number of bytes to reserve.
+     * @return true if the bytes were reserved, false if the budget is used
+     * up.
+     */
+    public synchronized boolean tryAcquire(long bytes) {
+        if (usedBytes > 0 && usedBytes + bytes > budgetBytes) {
+            return false;
+        }
+        usedBytes += bytes;
+        return true;
+    }
+
+    /**
+     * Reserve the given number of bytes, waiting until enough memory is
+     * released. A reservation always succeeds when nothing is in use, so a
+     * single item larger than the budget can not block forever.
+     *
+     * @param bytes The number of bytes to reserve.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public synchronized void acquire(long bytes) throws InterruptedException {
+        while (usedBytes > 0 && usedBytes + bytes > budgetBytes) {
+            wait();
+        }
+        usedBytes += bytes;
+    }
+
+    /**
+     * Release the given number of bytes.
+     *
+     * @param bytes The number of bytes to release.
+     */
+    public synchronized void release(long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        usedBytes = Math.max(0, usedBytes - bytes);
+        notifyAll();
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /**
+     * Estimate the heap usage of the given Observation, based on its result
+     * and parameters.
+     *
+     * @param obs The Observation to estimate.
+     * @return The estimated number of bytes.
+     */
+    public static long estimateSize(Observation obs) {
+        long size = OBSERVATION_OVERHEAD + estimateSize(obs.getResult(), 0);
+        final Map<String, Object> parameters = obs.getParameters();
+        if (parameters != null) {
+            size += estimateSize(parameters, 0);
+        }
+        return size;
+    }
+
+    /**
+     * Estimate the heap used by a result or parameter value.
+     *
+     * @param value The value to estimate.
+     * @return The estimated number of bytes.
+     */
+    public static long estimateValueSize(Object value) {
+        return estimateSize(value, 0);
+    }
+
+    private static long estimateSize(Object value, int depth) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof CharSequence) {
+            return STRING_OVERHEAD + ((CharSequence) value).length();
+        }
+        if (depth >= MAX_DEPTH) {
+            return OBJECT_OVERHEAD;
+        }
+        if (value instanceof Map) {
+            long size = OBJECT_OVERHEAD;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += ENTRY_OVERHEAD + estimateSize(entry.getKey(), depth + 1) + estimateSize(entry.getValue(), depth + 1);
+            }
+            return size;
+        }
+        if (value instanceof Collection) {
+            long size = OBJECT_OVERHEAD;
+            for (Object item : (Collection<?>) value) {
+                size += 8 + estimateSize(item, depth + 1);
+            }
+            return size;
+        }
+        return OBJECT_OVERHEAD;
+    }
+
+}
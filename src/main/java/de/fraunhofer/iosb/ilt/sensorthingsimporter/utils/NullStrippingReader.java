@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2026 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sensorthingsimporter.utils;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A Reader that drops all null characters from the wrapped Reader.
+ *
+ * @author hylke
+ */
+public class NullStrippingReader extends FilterReader {
+
+    public NullStrippingReader(Reader in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int c;
+        do {
+            c = super.read();
+        } while (c == 0);
+        return c;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        while (true) {
+            final int count = super.read(cbuf, off, len);
+            if (count <= 0) {
+                return count;
+            }
+            int kept = off;
+            for (int i = off; i < off + count; i++) {
+                if (cbuf[i] != 0) {
+                    cbuf[kept++] = cbuf[i];
+                }
+            }
+            if (kept > off) {
+                return kept - off;
+            }
+            // Only nulls read, returning 0 would signal a non-blocking read.
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n < 0) {
+            throw new IllegalArgumentException("Skip value is negative.");
+        }
+        final char[] buffer = new char[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            final int count = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+            if (count < 0) {
+                break;
+            }
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) throws IOException {
+        throw new IOException("mark() not supported.");
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("reset() not supported.");
+    }
+
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2026 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sensorthingsimporter.utils;
+
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.ImportException;
+import de.fraunhofer.iosb.ilt.sta.ServiceFailureException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A concurrent cache for entities resolved from the server, keyed by the
+ * type of entity and the (filled) filter used to find them. Filters that
+ * resolved to nothing are cached as negative entries. Each key is loaded by
+ * only one Thread at a time; other Threads asking for the same key wait for
+ * that load to finish. Entries expire after a configurable time, and the
+ * least recently used entries are evicted when the cache is full.
+ *
+ * A single cache can be shared between several users, like a DsMapperFilter
+ * and its DataStreamGeneratorNames, so they resolve entities consistently.
+ *
+ * @author hylke
+ */
+public class ResolutionCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResolutionCache.class.getName());
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    /**
+     * Loads the value for a key that is not in the cache.
+     *
+     * @param <T> The type of the value.
+     */
+    @FunctionalInterface
+    public static interface Loader<T> {
+
+        /**
+         * Load the value.
+         *
+         * @return The value, or null if there is none.
+         * @throws ServiceFailureException If the server could not be reached.
+         * @throws ImportException If the value could not be loaded.
+         */
+        public T load() throws ServiceFailureException, ImportException;
+    }
+
+    private static class Entry {
+
+        private final CompletableFuture<Object> value = new CompletableFuture<>();
+        private volatile boolean expiring;
+        private volatile long expires;
+        private volatile long lastAccess;
+
+        public Entry(long now) {
+            this.lastAccess = now;
+        }
+
+        public boolean isExpired(long now) {
+            return expiring && now - expires > 0;
+        }
+    }
+
+    /**
+     * An entry considered for eviction, with its last access time fixed.
+     */
+    private static class Candidate {
+
+        private final String key;
+        private final Entry entry;
+        private final long lastAccess;
+
+        public Candidate(String key, Entry entry) {
+            this.key = key;
+            this.entry = entry;
+            this.lastAccess = entry.lastAccess;
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final LongSupplier clock;
+
+    /**
+     * Create a new cache.
+     *
+     * @param maxEntries The maximum number of entries in the cache.
+     * @param ttlMillis The time after which entries expire, 0 for never.
+     * @param negativeTtlMillis The time after which negative entries expire,
+     * 0 for never.
+     */
+    public ResolutionCache(int maxEntries, long ttlMillis, long negativeTtlMillis) {
+        this(maxEntries, ttlMillis, negativeTtlMillis, System::nanoTime);
+    }
+
+    /**
+     * Create a new cache with the given clock.
+     *
+     * @param maxEntries The maximum number of entries in the cache.
+     * @param ttlMillis The time after which entries expire, 0 for never.
+     * @param negativeTtlMillis The time after which negative entries expire,
+     * 0 for never.
+     * @param clock The source of the current time, in nanoseconds.
+     */
+    public ResolutionCache(int maxEntries, long ttlMillis, long negativeTtlMillis, LongSupplier clock) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive, got " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.negativeTtlNanos = negativeTtlMillis * 1_000_000L;
+        this.clock = clock;
+    }
+
+    /**
+     * Get the value for the given type and filter from the cache, loading it
+     * if it is not cached or expired.
+     *
+     * @param <T> The type of the value.
+     * @param type The type of entity, used to separate keys of different
+     * users of the cache.
+     * @param filter The filter the value is resolved with.
+     * @param loader The loader used if the value is not in the cache.
+     * @return The value, or null if the filter resolves to nothing.
+     * @throws ServiceFailureException If the loader failed to reach the
+     * server.
+     * @throws ImportException If the loader failed.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String type, String filter, Loader<T> loader) throws ServiceFailureException, ImportException {
+        final String key = type + KEY_SEPARATOR + filter;
+        while (true) {
+            final long now = clock.getAsLong();
+            Entry entry = entries.get(key);
+            if (entry != null && entry.isExpired(now)) {
+                entries.remove(key, entry);
+                entry = null;
+            }
+            if (entry == null) {
+                Entry created = new Entry(now);
+                entry = entries.putIfAbsent(key, created);
+                if (entry == null) {
+                    return (T) load(key, created, loader);
+                }
+            }
+            entry.lastAccess = now;
+            try {
+                return (T) entry.value.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new ImportException("Interrupted waiting for " + type + " " + filter, ex);
+            } catch (ExecutionException ex) {
+                // The load failed and the entry is removed, try it ourselves.
+                LOGGER.debug("Concurrent load of {} {} failed: {}", type, filter, ex.getCause().getMessage());
+            }
+        }
+    }
+
+    private Object load(String key, Entry entry, Loader<?> loader) throws ServiceFailureException, ImportException {
+        final Object value;
+        try {
+            value = loader.load();
+        } catch (Throwable ex) {
+            // Also Errors, or threads waiting for this entry would block forever.
+            entries.remove(key, entry);
+            entry.value.completeExceptionally(ex);
+            throw ex;
+        }
+        final long ttl = value == null ? negativeTtlNanos : ttlNanos;
+        if (ttl > 0) {
+            entry.expires = clock.getAsLong() + ttl;
+            entry.expiring = true;
+        }
+        entry.value.complete(value);
+        if (entries.size() > maxEntries) {
+            evict();
+        }
+        return value;
+    }
+
+    /**
+     * Removes expired entries, and if the cache is still too large, the least
+     * recently used tenth of the entries.
+     */
+    private synchronized void evict() {
+        if (entries.size() <= maxEntries) {
+            return;
+        }
+        final long now = clock.getAsLong();
+        entries.values().removeIf(e -> e.isExpired(now));
+        final int target = maxEntries - maxEntries / 10;
+        if (entries.size() <= target) {
+            return;
+        }
+        List<Candidate> loaded = new ArrayList<>();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            if (e.getValue().value.isDone()) {
+                loaded.add(new Candidate(e.getKey(), e.getValue()));
+            }
+        }
+        loaded.sort(Comparator.comparingLong(c -> c.lastAccess));
+        int toRemove = entries.size() - target;
+        for (int i = 0; i < toRemove && i < loaded.size(); i++) {
+            Candidate candidate = loaded.get(i);
+            entries.remove(candidate.key, candidate.entry);
+        }
+        LOGGER.debug("Evicted entries, {} left.", entries.size());
+    }
+
+    /**
+     * Remove the entry for the given type and filter, so the next request
+     * loads it again.
+     *
+     * @param type The type of entity.
+     * @param filter The filter the value is resolved with.
+     */
+    public void invalidate(String type, String filter) {
+        entries.remove(type + KEY_SEPARATOR + filter);
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return The number of entries in the cache, including negative and
+     * loading entries.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+}
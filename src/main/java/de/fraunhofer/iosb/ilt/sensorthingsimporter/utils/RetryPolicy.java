@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2026 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sensorthingsimporter.utils;
+
+import de.fraunhofer.iosb.ilt.sta.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.sta.StatusCodeException;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Retries requests that failed because the server is (temporarily)
+ * unavailable, with exponential backoff and jitter. All requests pass through
+ * a shared {@link CircuitBreaker}.
+ *
+ * @author hylke
+ */
+public class RetryPolicy {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RetryPolicy.class.getName());
+
+    /**
+     * A request to the server.
+     *
+     * @param <T> The type of the result of the request.
+     */
+    public static interface Request<T> {
+
+        public T execute() throws ServiceFailureException;
+    }
+
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final CircuitBreaker breaker;
+
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong backoffMillis = new AtomicLong();
+
+    /**
+     * Create a new retry policy.
+     *
+     * @param maxRetries The number of times a request is retried.
+     * @param baseDelayMillis The delay before the first retry.
+     * @param maxDelayMillis The maximum delay before a retry.
+     * @param breaker The circuit breaker to use.
+     */
+    public RetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis, CircuitBreaker breaker) {
+        this.maxRetries = maxRetries;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = Math.max(baseDelayMillis, maxDelayMillis);
+        this.breaker = breaker;
+    }
+
+    /**
+     * Execute the given request, retrying it if it fails with a retryable
+     * error.
+     *
+     * @param <T> The type of the result of the request.
+     * @param request The request to execute.
+     * @return The result of the request.
+     * @throws ServiceFailureException The last failure, if the request failed
+     * with a non-retryable error, or if all retries failed.
+     */
+    public <T> T execute(Request<T> request) throws ServiceFailureException {
+        int attempt = 0;
+        while (true) {
+            try {
+                breaker.awaitPermission();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new ServiceFailureException("Interrupted waiting for circuit breaker.", ex);
+            }
+            boolean registered = false;
+            try {
+                T result = request.execute();
+                breaker.registerSuccess();
+                registered = true;
+                return result;
+            } catch (ServiceFailureException exc) {
+                registered = true;
+                if (!isRetryable(exc)) {
+                    // The server answered, so it is not down.
+                    breaker.registerSuccess();
+                    throw exc;
+                }
+                breaker.registerFailure();
+                if (attempt >= maxRetries) {
+                    throw exc;
+                }
+                final long delay = backoffDelay(attempt);
+                attempt++;
+                retries.incrementAndGet();
+                backoffMillis.addAndGet(delay);
+                LOGGER.warn("Request failed ({}), retry {} of {} in {} ms.", exc.getMessage(), attempt, maxRetries, delay);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw exc;
+                }
+            } finally {
+                if (!registered) {
+                    // Unexpected exception, do not keep other threads waiting for our probe.
+                    breaker.releaseProbe();
+                }
+            }
+        }
+    }
+
+    /**
+     * The delay before the given retry: exponential in the attempt, with the
+     * upper half randomised so that threads do not retry in lockstep.
+     *
+     * @param attempt The number of retries done so far.
+     * @return The delay in ms.
+     */
+    long backoffDelay(int attempt) {
+        final long cap = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt, 30));
+        final long half = cap / 2;
+        return half + ThreadLocalRandom.current().nextLong(cap - half + 1);
+    }
+
+    /**
+     * Checks if the given failure is one that may go away when the request is
+     * repeated: server errors, 429 Too Many Requests, 408 Request Timeout, and
+     * connection problems.
+     *
+     * @param exc The failure to check.
+     * @return true if the request should be retried.
+     */
+    public static boolean isRetryable(ServiceFailureException exc) {
+        if (exc instanceof StatusCodeException) {
+            return isRetryable(((StatusCodeException) exc).getStatusCode());
+        }
+        for (Throwable cause = exc.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if a request that failed with the given HTTP status code is
+     * worth retrying: server errors, rate limiting and timeouts.
+     *
+     * @param statusCode The HTTP status code returned by the server.
+     * @return true if the request may succeed when retried.
+     */
+    public static boolean isRetryable(int statusCode) {
+        return statusCode >= 500 || statusCode == 429 || statusCode == 408;
+    }
+
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    /**
+     * @return The total number of retries.
+     */
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * @return The total time, in ms, spent waiting before retries.
+     */
+    public long getBackoffMillis() {
+        return backoffMillis.get();
+    }
+
+}
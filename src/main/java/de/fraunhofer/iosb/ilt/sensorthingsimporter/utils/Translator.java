@@ -29,8 +29,12 @@ import de.fraunhofer.iosb.ilt.sta.Utils;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.apache.commons.csv.CSVRecord;
@@ -55,6 +59,28 @@ public class Translator extends AbstractConfigurable<Void, Void> {
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(Translator.class);
     private static final Pattern PLACE_HOLDER_PATTERN = Pattern.compile("\\{([0-9a-zA-Z_]+)(\\|([^}]*))?\\}");
+    /**
+     * The maximum number of compiled templates kept per StringType. Templates
+     * come from the configuration, so this is only reached if templates are
+     * generated.
+     */
+    private static final int MAX_CACHED_TEMPLATES = 1000;
+    private static final Map<StringType, Map<String, Template>> TEMPLATES = new EnumMap<>(StringType.class);
+    private static final Map<StringType, Map<String, Template>> TEMPLATES_NO_NEWLINES = new EnumMap<>(StringType.class);
+
+    static {
+        for (StringType type : StringType.values()) {
+            TEMPLATES.put(type, new ConcurrentHashMap<>());
+            TEMPLATES_NO_NEWLINES.put(type, new ConcurrentHashMap<>());
+        }
+    }
+
+    private static final ThreadLocal<StringBuilder> BUFFERS = new ThreadLocal<>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder();
+        }
+    };
 
     private static final TypeReference<Map<String, String>> TYPE_REF_MAP_STRING_STRING = new TypeReference<Map<String, String>>() {
         // Empty by design.
@@ -125,58 +151,129 @@ public class Translator extends AbstractConfigurable<Void, Void> {
         return result.toString();
     }
 
-    public static String fillTemplate(String template, CSVRecord record, StringType targetType, boolean removeNewlines) {
-        if (removeNewlines) {
-            return fillTemplate(StringUtils.remove(template, "\n"), record, targetType);
-        }
-        return fillTemplate(template, record, targetType);
-    }
+    /**
+     * A template, parsed into literal parts and placeholders for columns,
+     * with the escaping for the target type chosen up front.
+     */
+    public static class Template {
 
-    public static String fillTemplate(String template, CSVRecord record) {
-        return fillTemplate(template, record, StringType.PLAIN);
-    }
+        private final String template;
+        private final StringType targetType;
+        /**
+         * The literal parts, one more than there are placeholders.
+         */
+        private final String[] literals;
+        /**
+         * The column numbers of the placeholders, or -1 for named columns.
+         */
+        private final int[] columnNrs;
+        private final String[] columnNames;
+        private final String[] defaults;
 
-    public static String fillTemplate(String template, CSVRecord record, StringType targetType) {
-        if (record.isMapped(template)) {
-            return record.get(template);
+        private Template(String template, StringType targetType) {
+            this.template = template;
+            this.targetType = targetType;
+            List<String> literalList = new ArrayList<>();
+            List<String> nameList = new ArrayList<>();
+            List<String> defaultList = new ArrayList<>();
+            Matcher matcher = PLACE_HOLDER_PATTERN.matcher(template);
+            int pos = 0;
+            while (matcher.find()) {
+                literalList.add(template.substring(pos, matcher.start()));
+                nameList.add(matcher.group(1));
+                defaultList.add(matcher.group(3));
+                pos = matcher.end();
+            }
+            literalList.add(template.substring(pos));
+            literals = literalList.toArray(String[]::new);
+            columnNames = nameList.toArray(String[]::new);
+            defaults = defaultList.toArray(String[]::new);
+            columnNrs = new int[columnNames.length];
+            for (int i = 0; i < columnNames.length; i++) {
+                try {
+                    columnNrs[i] = Integer.parseInt(columnNames[i]);
+                } catch (NumberFormatException ex) {
+                    columnNrs[i] = -1;
+                }
+            }
         }
-        Matcher matcher = PLACE_HOLDER_PATTERN.matcher(template);
-        matcher.reset();
-        StringBuilder filter = new StringBuilder();
-        int pos = 0;
-        while (matcher.find()) {
-            int start = matcher.start();
-            filter.append(template.substring(pos, start));
-            String value;
-            try {
-                int colNr = Integer.parseInt(matcher.group(1));
-                value = record.get(colNr);
-            } catch (NumberFormatException ex) {
-                String colName = matcher.group(1);
-                value = record.get(colName);
+
+        /**
+         * Fill the template with the values from the given record.
+         *
+         * @param record The record to take the values from.
+         * @return The filled template.
+         */
+        public String fill(CSVRecord record) {
+            if (record.isMapped(template)) {
+                return record.get(template);
+            }
+            if (columnNames.length == 0) {
+                return template;
             }
-            if (Utils.isNullOrEmpty(value) && matcher.group(3) != null) {
-                value = matcher.group(3);
+            StringBuilder result = BUFFERS.get();
+            result.setLength(0);
+            result.append(literals[0]);
+            for (int i = 0; i < columnNames.length; i++) {
+                String value = columnNrs[i] >= 0 ? record.get(columnNrs[i]) : record.get(columnNames[i]);
+                if (Utils.isNullOrEmpty(value) && defaults[i] != null) {
+                    value = defaults[i];
+                }
+                result.append(escape(value))
+                        .append(literals[i + 1]);
             }
+            return result.toString();
+        }
+
+        private String escape(String value) {
             switch (targetType) {
                 case JSON:
                     value = StringUtils.replace(value, "\\", "\\\\");
-                    value = StringUtils.replace(value, "\n", "\\n");
-                    break;
+                    return StringUtils.replace(value, "\n", "\\n");
 
                 case URL:
-                    value = Utils.escapeForStringConstant(value);
-                    break;
+                    return Utils.escapeForStringConstant(value);
 
                 case PLAIN:
                 default:
-                    // Do nothing.
+                    return value;
+            }
+        }
+    }
+
+    /**
+     * Returns the compiled version of the given template. Compiled templates
+     * are cached.
+     *
+     * @param template The template, using {colNr|default} or {colName|default}
+     * placeholders.
+     * @param targetType The type of String the template generates, used to
+     * escape the values.
+     * @param removeNewlines Whether to remove newlines from the template.
+     * @return The compiled template.
+     */
+    public static Template compile(String template, StringType targetType, boolean removeNewlines) {
+        final Map<String, Template> cache = (removeNewlines ? TEMPLATES_NO_NEWLINES : TEMPLATES).get(targetType);
+        Template compiled = cache.get(template);
+        if (compiled == null) {
+            compiled = new Template(removeNewlines ? StringUtils.remove(template, "\n") : template, targetType);
+            if (cache.size() < MAX_CACHED_TEMPLATES) {
+                cache.put(template, compiled);
             }
-            filter.append(value);
-            pos = matcher.end();
         }
-        filter.append(template.substring(pos));
-        return filter.toString();
+        return compiled;
+    }
+
+    public static String fillTemplate(String template, CSVRecord record, StringType targetType, boolean removeNewlines) {
+        return compile(template, targetType, removeNewlines).fill(record);
+    }
+
+    public static String fillTemplate(String template, CSVRecord record) {
+        return fillTemplate(template, record, StringType.PLAIN);
+    }
+
+    public static String fillTemplate(String template, CSVRecord record, StringType targetType) {
+        return compile(template, targetType, false).fill(record);
     }
 
 }
@@ -71,7 +71,7 @@ public class UnitConverter implements AnnotatedConfigurable<Object, Object> {
     @EditorClass.EdOptsClass(clazz = Unit.class)
     public List<Unit> conversions;
 
-    public boolean inited = false;
+    public volatile boolean inited = false;
     public Map<String, Map<String, Unit>> forward = new HashMap<>();
     public Map<String, Map<String, Unit>> reverse = new HashMap<>();
 
@@ -79,18 +79,18 @@ public class UnitConverter implements AnnotatedConfigurable<Object, Object> {
         if (!inited) {
             init();
         }
-        Unit unit = forward.computeIfAbsent(from, (t) -> Collections.emptyMap()).get(to);
+        Unit unit = forward.getOrDefault(from, Collections.emptyMap()).get(to);
         if (unit != null) {
             return unit.convert(value);
         }
-        unit = reverse.computeIfAbsent(from, (t) -> Collections.emptyMap()).get(to);
+        unit = reverse.getOrDefault(from, Collections.emptyMap()).get(to);
         if (unit != null) {
             return unit.convertInverse(value);
         }
         return null;
     }
 
-    private void init() {
+    private synchronized void init() {
         if (inited) {
             return;
         }
@@ -98,5 +98,6 @@ public class UnitConverter implements AnnotatedConfigurable<Object, Object> {
             forward.computeIfAbsent(unit.from, (t) -> new HashMap<>()).put(unit.to, unit);
             reverse.computeIfAbsent(unit.to, (t) -> new HashMap<>()).put(unit.from, unit);
         }
+        inited = true;
     }
 }
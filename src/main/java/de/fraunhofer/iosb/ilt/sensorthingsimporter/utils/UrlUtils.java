@@ -23,9 +23,14 @@ import de.fraunhofer.iosb.ilt.sta.jackson.ObjectMapperFactory;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -81,6 +86,80 @@ public class UrlUtils {
         return readNormalUrl(targetUrl, charset);
     }
 
+    /**
+     * Open a Reader on the given URL, without loading the content into
+     * memory. Files are read directly. Responses of other URLs are first
+     * written to a temporary file, so that a slow consumer can not cause the
+     * connection to time out. The temporary file is deleted when the Reader
+     * is closed.
+     *
+     * @param targetUrl The URL to read.
+     * @param charset The character set to use if the content does not
+     * specify one.
+     * @return A Reader that must be closed by the caller.
+     * @throws IOException If the URL could not be read.
+     */
+    public static Reader openReader(String targetUrl, Charset charset) throws IOException {
+        if (targetUrl.startsWith("file:/")) {
+            LOGGER.info("Streaming: {}", targetUrl);
+            return openReader(new URL(targetUrl).openStream(), charset, null);
+        }
+        LOGGER.info("Fetching: {}", targetUrl);
+        HttpClientBuilder clientBuilder = HttpClientBuilder.create()
+                .useSystemProperties()
+                .setDefaultRequestConfig(
+                        RequestConfig.custom()
+                                .setSocketTimeout(20_000)
+                                .setConnectTimeout(10_000)
+                                .setConnectionRequestTimeout(10_000)
+                                .build());
+        final HttpGet get = new HttpGet(targetUrl);
+        get.addHeader("Accept", "*/*");
+        final Path temp = Files.createTempFile("sta-importer-", ".tmp");
+        try (CloseableHttpClient client = clientBuilder.build();
+                CloseableHttpResponse response = client.execute(get)) {
+            final int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode >= 400) {
+                throw new IOException("Failed to fetch " + targetUrl + ": " + statusCode);
+            }
+            HttpEntity entity = response.getEntity();
+            if (entity != null) {
+                ContentType contentType = ContentType.get(entity);
+                if (contentType != null && contentType.getCharset() != null) {
+                    charset = contentType.getCharset();
+                }
+                try (InputStream content = entity.getContent()) {
+                    Files.copy(content, temp, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            LOGGER.debug("Received {} bytes.", Files.size(temp));
+            return openReader(Files.newInputStream(temp), charset, temp);
+        } catch (IOException | RuntimeException exc) {
+            Files.deleteIfExists(temp);
+            throw exc;
+        }
+    }
+
+    private static Reader openReader(InputStream input, Charset charset, Path deleteOnClose) throws IOException {
+        final BufferedInputStream bufInput = new BufferedInputStream(input);
+        byte[] firstBytes = new byte[3];
+        bufInput.mark(3);
+        bufInput.read(firstBytes);
+        bufInput.reset();
+        return new InputStreamReader(bufInput, guessCharset(firstBytes, charset)) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (deleteOnClose != null) {
+                        Files.deleteIfExists(deleteOnClose);
+                    }
+                }
+            }
+        };
+    }
+
     public static HttpResponse readNormalUrl(String targetUrl, Charset charset) throws IOException, ParseException {
         return readNormalUrl(targetUrl, charset, Collections.emptyList(), null, null);
     }
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2026 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sensorthingsimporter.utils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates virtual threads when running on Java 21 or later, and platform
+ * threads otherwise. The project is compiled for Java 17, so the virtual
+ * thread API is accessed through reflection.
+ *
+ * @author hylke
+ */
+public final class VirtualThreads {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VirtualThreads.class.getName());
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_FACTORY;
+    private static final Method NEW_THREAD_PER_TASK;
+
+    static {
+        Method ofVirtual = null;
+        Method builderName = null;
+        Method builderFactory = null;
+        Method newThreadPerTask = null;
+        try {
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            builderName = builderClass.getMethod("name", String.class, long.class);
+            builderFactory = builderClass.getMethod("factory");
+            newThreadPerTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (ClassNotFoundException | NoSuchMethodException ex) {
+            LOGGER.debug("Virtual threads not available: {}", ex.getMessage());
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = builderName;
+        BUILDER_FACTORY = builderFactory;
+        NEW_THREAD_PER_TASK = newThreadPerTask;
+    }
+
+    private VirtualThreads() {
+        // Utility class.
+    }
+
+    /**
+     * @return true if the running JVM supports virtual threads.
+     */
+    public static boolean isAvailable() {
+        return OF_VIRTUAL != null && NEW_THREAD_PER_TASK != null;
+    }
+
+    /**
+     * Create a thread factory.
+     *
+     * @param namePrefix The prefix of the names of the threads.
+     * @param virtual Whether virtual threads should be created. If virtual
+     * threads are not available, platform threads are created.
+     * @return A thread factory.
+     */
+    public static ThreadFactory factory(String namePrefix, boolean virtual) {
+        if (virtual && isAvailable()) {
+            try {
+                final Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), namePrefix, 0L);
+                return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+            } catch (IllegalAccessException | InvocationTargetException ex) {
+                LOGGER.warn("Failed to create virtual thread factory, using platform threads: {}", ex.getMessage());
+            }
+        } else if (virtual) {
+            LOGGER.warn("Virtual threads need Java 21 or later, using platform threads.");
+        }
+        final AtomicLong counter = new AtomicLong();
+        return runnable -> new Thread(runnable, namePrefix + counter.getAndIncrement());
+    }
+
+    /**
+     * Create an executor. With virtual threads, each task gets a new thread.
+     * Otherwise a fixed pool of platform threads is used.
+     *
+     * @param namePrefix The prefix of the names of the threads.
+     * @param virtual Whether virtual threads should be used.
+     * @param platformThreads The number of threads when not using virtual
+     * threads.
+     * @return An executor.
+     */
+    public static ExecutorService newExecutor(String namePrefix, boolean virtual, int platformThreads) {
+        if (virtual && isAvailable()) {
+            try {
+                // Virtual threads are cheap, they are not pooled.
+                return (ExecutorService) NEW_THREAD_PER_TASK.invoke(null, factory(namePrefix, true));
+            } catch (IllegalAccessException | InvocationTargetException ex) {
+                LOGGER.warn("Failed to create virtual thread executor, using platform threads: {}", ex.getMessage());
+            }
+        }
+        return Executors.newFixedThreadPool(platformThreads, factory(namePrefix, false));
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2026 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sensorthingsimporter.utils;
+
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.WatermarkStore.Watermark;
+import de.fraunhofer.iosb.ilt.sta.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.sta.model.Datastream;
+import de.fraunhofer.iosb.ilt.sta.model.Entity;
+import de.fraunhofer.iosb.ilt.sta.model.Id;
+import de.fraunhofer.iosb.ilt.sta.model.MultiDatastream;
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import de.fraunhofer.iosb.ilt.sta.model.TimeObject;
+import de.fraunhofer.iosb.ilt.sta.model.ext.EntityList;
+import de.fraunhofer.iosb.ilt.sta.service.SensorThingsService;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fetches the latest phenomenonTime of many (Multi)Datastreams at once, by
+ * expanding the latest Observation of each (Multi)Datastream in a paged list,
+ * instead of sending one request per (Multi)Datastream.
+ *
+ * @author hylke
+ */
+public class WatermarkFetcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WatermarkFetcher.class.getName());
+
+    /**
+     * Expands the latest Observation of a (Multi)Datastream.
+     */
+    public static final String EXPAND_LATEST = "Observations($select=phenomenonTime;$orderby=phenomenonTime desc;$top=1)";
+
+    private WatermarkFetcher() {
+        // Utility class.
+    }
+
+    /**
+     * Fetch the latest phenomenonTime of all Datastreams matching the filter.
+     *
+     * @param service The service to fetch from.
+     * @param filter The filter to apply to the Datastreams, may be empty.
+     * @return The watermarks by Datastream id. Datastreams without
+     * Observations have an empty watermark.
+     * @throws ServiceFailureException If fetching failed.
+     */
+    public static Map<Id, Watermark> fetchDatastreams(SensorThingsService service, String filter) throws ServiceFailureException {
+        EntityCache<Id, Datastream> cache = new EntityCache<>(Entity::getId, null);
+        cache.load(service.datastreams(), filter, "id", EXPAND_LATEST);
+        Map<Id, Watermark> result = new HashMap<>();
+        for (Datastream ds : cache.valuesWithLocalId()) {
+            result.put(ds.getId(), watermarkOf(ds.getObservations()));
+        }
+        LOGGER.info("Fetched latest phenomenonTime of {} Datastreams.", result.size());
+        return result;
+    }
+
+    /**
+     * Fetch the latest phenomenonTime of all MultiDatastreams matching the
+     * filter.
+     *
+     * @param service The service to fetch from.
+     * @param filter The filter to apply to the MultiDatastreams, may be empty.
+     * @return The watermarks by MultiDatastream id. MultiDatastreams without
+     * Observations have an empty watermark.
+     * @throws ServiceFailureException If fetching failed.
+     */
+    public static Map<Id, Watermark> fetchMultiDatastreams(SensorThingsService service, String filter) throws ServiceFailureException {
+        EntityCache<Id, MultiDatastream> cache = new EntityCache<>(Entity::getId, null);
+        cache.load(service.multiDatastreams(), filter, "id", EXPAND_LATEST);
+        Map<Id, Watermark> result = new HashMap<>();
+        for (MultiDatastream mds : cache.valuesWithLocalId()) {
+            result.put(mds.getId(), watermarkOf(mds.getObservations()));
+        }
+        LOGGER.info("Fetched latest phenomenonTime of {} MultiDatastreams.", result.size());
+        return result;
+    }
+
+    private static Watermark watermarkOf(EntityList<Observation> observations) {
+        final long now = System.currentTimeMillis();
+        final List<Observation> list = observations == null ? null : observations.toList();
+        if (list == null || list.isEmpty()) {
+            return new Watermark(Instant.MIN, Instant.MIN, now);
+        }
+        final TimeObject phenTime = list.get(0).getPhenomenonTime();
+        final Instant start = FrostUtils.instantFrom(phenTime);
+        final Instant end = phenTime.isInterval() ? phenTime.getAsInterval().getEnd() : start;
+        return new Watermark(start, end, now);
+    }
+
+}
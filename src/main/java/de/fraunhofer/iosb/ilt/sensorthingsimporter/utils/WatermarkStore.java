@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2026 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sensorthingsimporter.utils;
+
+import de.fraunhofer.iosb.ilt.sta.model.Entity;
+import de.fraunhofer.iosb.ilt.sta.model.Id;
+import de.fraunhofer.iosb.ilt.sta.model.MultiDatastream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores the latest phenomenonTime of (Multi)Datastreams in a file, so it
+ * survives between runs and does not have to be fetched from the server each
+ * time. Each value records when it was last confirmed, so users can decide
+ * when to check the server again.
+ *
+ * There is one store per file in a JVM, see {@link #open(Path)}.
+ *
+ * @author hylke
+ */
+public class WatermarkStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WatermarkStore.class.getName());
+    private static final Map<Path, WatermarkStore> STORES = new HashMap<>();
+    /**
+     * The minimum time between automatic saves.
+     */
+    private static final long SAVE_INTERVAL_MILLIS = 10_000;
+
+    /**
+     * The latest phenomenonTime of a (Multi)Datastream.
+     */
+    public static class Watermark {
+
+        /**
+         * The start of the latest phenomenonTime.
+         */
+        public final Instant start;
+        /**
+         * The end of the latest phenomenonTime, the same as start if it is
+         * not an interval.
+         */
+        public final Instant end;
+        /**
+         * The time the value was last confirmed, in ms since the epoch.
+         */
+        public final long checked;
+
+        public Watermark(Instant start, Instant end, long checked) {
+            this.start = start;
+            this.end = end;
+            this.checked = checked;
+        }
+
+        /**
+         * @param maxAgeMillis The maximum age, in ms.
+         * @return true if the value was confirmed less than maxAge ago.
+         */
+        public boolean isFresh(long maxAgeMillis) {
+            return System.currentTimeMillis() - checked < maxAgeMillis;
+        }
+
+        /**
+         * @return true if the (Multi)Datastream has no Observations.
+         */
+        public boolean isEmpty() {
+            return Instant.MIN.equals(start);
+        }
+
+        private String format() {
+            return start + " " + end + " " + checked;
+        }
+
+        private static Watermark parse(String value) {
+            String[] parts = value.split(" ");
+            if (parts.length != 3) {
+                return null;
+            }
+            try {
+                return new Watermark(Instant.parse(parts[0]), Instant.parse(parts[1]), Long.parseLong(parts[2]));
+            } catch (DateTimeParseException | NumberFormatException ex) {
+                return null;
+            }
+        }
+    }
+
+    private final Path file;
+    private final Map<String, Watermark> values = new HashMap<>();
+    private boolean dirty;
+    private long lastSave;
+
+    private WatermarkStore(Path file) throws IOException {
+        this.file = file;
+        if (Files.exists(file)) {
+            Properties props = new Properties();
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                props.load(reader);
+            }
+            for (String key : props.stringPropertyNames()) {
+                Watermark watermark = Watermark.parse(props.getProperty(key));
+                if (watermark == null) {
+                    LOGGER.warn("Ignoring invalid watermark for {}: {}", key, props.getProperty(key));
+                } else {
+                    values.put(key, watermark);
+                }
+            }
+            LOGGER.info("Loaded {} watermarks from {}.", values.size(), file);
+        }
+        lastSave = System.currentTimeMillis();
+    }
+
+    /**
+     * Get the store for the given file, loading it if it is not open yet.
+     *
+     * @param file The file the store is kept in.
+     * @return The store.
+     * @throws IOException If the file exists but can not be read.
+     */
+    public static WatermarkStore open(Path file) throws IOException {
+        final Path key = file.toAbsolutePath().normalize();
+        synchronized (STORES) {
+            WatermarkStore store = STORES.get(key);
+            if (store == null) {
+                store = new WatermarkStore(key);
+                STORES.put(key, store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * The key of the given (Multi)Datastream. The store does not record the
+     * server, so each server needs its own file.
+     *
+     * @param ds The Datastream or MultiDatastream.
+     * @return The key.
+     */
+    public static String keyFor(Entity ds) {
+        if (ds instanceof MultiDatastream) {
+            return keyForMultiDatastream(ds.getId());
+        }
+        return keyForDatastream(ds.getId());
+    }
+
+    public static String keyForDatastream(Id id) {
+        return "Datastreams(" + id.getUrl() + ")";
+    }
+
+    public static String keyForMultiDatastream(Id id) {
+        return "MultiDatastreams(" + id.getUrl() + ")";
+    }
+
+    public synchronized Watermark get(String key) {
+        return values.get(key);
+    }
+
+    /**
+     * Set the watermark, as fetched from the server.
+     *
+     * @param key The key of the (Multi)Datastream.
+     * @param start The start of the latest phenomenonTime, or Instant.MIN if
+     * there are no Observations.
+     * @param end The end of the latest phenomenonTime.
+     */
+    public synchronized void put(String key, Instant start, Instant end) {
+        values.put(key, new Watermark(start, end, System.currentTimeMillis()));
+        changed();
+    }
+
+    /**
+     * Move the watermark forward, after Observations were uploaded. Does
+     * nothing if the stored watermark is already later.
+     *
+     * @param key The key of the (Multi)Datastream.
+     * @param start The start of the latest uploaded phenomenonTime.
+     * @param end The end of the latest uploaded phenomenonTime.
+     */
+    public synchronized void advance(String key, Instant start, Instant end) {
+        final Watermark old = values.get(key);
+        if (old != null && !old.start.isBefore(start)) {
+            return;
+        }
+        // Without a known older value, we can not confirm the new one.
+        final long checked = old == null ? 0 : System.currentTimeMillis();
+        values.put(key, new Watermark(start, end, checked));
+        changed();
+    }
+
+    private void changed() {
+        dirty = true;
+        if (System.currentTimeMillis() - lastSave > SAVE_INTERVAL_MILLIS) {
+            try {
+                save();
+            } catch (IOException exc) {
+                LOGGER.error("Failed to save watermarks: {}", exc.getMessage());
+                LOGGER.debug("Details:", exc);
+            }
+        }
+    }
+
+    /**
+     * Atomically write the watermarks to disk, if they changed.
+     *
+     * @throws IOException If the file could not be written.
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        final Path parent = file.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Properties props = new Properties();
+        for (Map.Entry<String, Watermark> entry : values.entrySet()) {
+            props.setProperty(entry.getKey(), entry.getValue().format());
+        }
+        final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            props.store(writer, "SensorThingsImporter watermarks");
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+        lastSave = System.currentTimeMillis();
+        LOGGER.debug("Saved {} watermarks.", values.size());
+    }
+
+}
@@ -19,6 +19,7 @@ package de.fraunhofer.iosb.ilt.sensorthingsimporter.validator;
 
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.ObservationUploader;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.FrostUtils;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.MemoryBudget;
 import de.fraunhofer.iosb.ilt.sta.ServiceFailureException;
 import de.fraunhofer.iosb.ilt.sta.dao.BaseDao;
 import de.fraunhofer.iosb.ilt.sta.model.Id;
@@ -28,37 +29,118 @@ import de.fraunhofer.iosb.ilt.sta.model.ext.EntityList;
 import de.fraunhofer.iosb.ilt.swe.common.Utils;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
+ * The cached Observations of one (Multi)Datastream. Must only be used while
+ * holding its lock, see {@link ObsCacheStore}.
+ *
+ * Only the id and result of each Observation are kept, in arrays parallel to
+ * sorted arrays of the start and end of the phenomenonTime, in nanoseconds
+ * since the epoch. Observations are found by binary search.
  *
  * @author hylke
  */
 class ObsCache {
 
-    private Id latestId;
+    /**
+     * The estimated memory use of the Id of an entry. The array slots are
+     * counted when the arrays grow.
+     */
+    private static final long ENTRY_OVERHEAD = 32;
+    /**
+     * The memory use of one slot in each of the four arrays.
+     */
+    private static final long SLOT_SIZE = 8 + 8 + 4 + 4;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final long MAX_SECONDS = Long.MAX_VALUE / NANOS_PER_SECOND - 1;
+
+    private final Id dsId;
     private Instant cacheStart;
-    private final Map<TimeObject, Observation> cache = new LinkedHashMap<>();
     private final ObservationUploader uploader;
     private final boolean deleteDuplicates;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private long[] starts = new long[0];
+    private long[] ends = new long[0];
+    private Id[] ids = new Id[0];
+    private Object[] results = new Object[0];
+    private int size;
+
+    private long bytes;
+    private long accountedBytes;
+    private boolean evicted;
 
-    public ObsCache(ObservationUploader uploader, boolean deleteDuplicates) {
+    public ObsCache(Id dsId, ObservationUploader uploader, boolean deleteDuplicates) {
+        this.dsId = dsId;
         this.uploader = uploader;
         this.deleteDuplicates = deleteDuplicates;
     }
 
+    public Id getDsId() {
+        return dsId;
+    }
+
+    public ReentrantLock getLock() {
+        return lock;
+    }
+
+    /**
+     * @return The estimated memory use of the cached Observations.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the change in memory use since the last call.
+     *
+     * @return The change in estimated memory use.
+     */
+    long takeBytesDelta() {
+        final long delta = bytes - accountedBytes;
+        accountedBytes = bytes;
+        return delta;
+    }
+
+    boolean isEvicted() {
+        return evicted;
+    }
+
+    /**
+     * Clears the cache, and marks it as no longer part of the store.
+     *
+     * @return The memory use that was accounted for.
+     */
+    long evict() {
+        evicted = true;
+        clear();
+        final long freed = accountedBytes;
+        accountedBytes = 0;
+        return freed;
+    }
+
     public boolean isEmpty() {
-        return cache.isEmpty();
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
     }
 
     public void clear() {
-        latestId = null;
         cacheStart = null;
-        cache.clear();
+        starts = new long[0];
+        ends = new long[0];
+        ids = new Id[0];
+        results = new Object[0];
+        size = 0;
+        bytes = 0;
     }
 
     public Instant getCacheStart() {
@@ -73,26 +155,63 @@ class ObsCache {
         return instant.isBefore(cacheStart);
     }
 
-    public boolean clearIfDifferent(Id id) {
-        if (!id.equals(latestId)) {
-            clear();
-            latestId = id;
-            return true;
-        }
-        return false;
-    }
-
+    /**
+     * Add the given Observation to the cache, replacing any Observation with
+     * the same phenomenonTime.
+     *
+     * @param time The phenomenonTime of the Observation.
+     * @param obs The Observation to add.
+     * @return The replaced Observation, with only its id and result set, or
+     * null.
+     */
     public Observation put(TimeObject time, Observation obs) {
         if (cacheStart == null) {
             cacheStart = FrostUtils.instantFrom(obs.getPhenomenonTime());
         }
-        return cache.put(time, obs);
+        return put(time, obs.getId(), obs.getResult());
+    }
+
+    private Observation put(TimeObject time, Id id, Object result) {
+        if (!isIndexable(time)) {
+            return null;
+        }
+        final long start = startNanos(time);
+        final long end = endNanos(time, start);
+        final int idx = indexOf(start, end);
+        bytes += ENTRY_OVERHEAD + MemoryBudget.estimateValueSize(result);
+        if (idx >= 0) {
+            final Observation old = toObservation(idx);
+            bytes -= ENTRY_OVERHEAD + MemoryBudget.estimateValueSize(results[idx]);
+            ids[idx] = id;
+            results[idx] = result;
+            return old;
+        }
+        insert(-idx - 1, start, end, id, result);
+        return null;
+    }
+
+    /**
+     * Find the Observation with the given phenomenonTime.
+     *
+     * @param time The phenomenonTime to search for.
+     * @return The Observation, with only its id and result set, or null.
+     */
+    public Observation get(TimeObject time) {
+        if (!isIndexable(time)) {
+            return null;
+        }
+        final long start = startNanos(time);
+        final int idx = indexOf(start, endNanos(time, start));
+        return idx < 0 ? null : toObservation(idx);
     }
 
     public Observation getFromCache(TimeObject checkTime, BaseDao<Observation> observations) throws ServiceFailureException {
         Instant checkInstant = FrostUtils.instantFrom(checkTime);
+        if (!isIndexable(checkTime)) {
+            return observations.query().select("@iot.id", "result").filter("phenomenonTime eq " + checkTime.toString()).first();
+        }
         List<Observation> toDelete = null;
-        if (cache.isEmpty()) {
+        if (isEmpty()) {
             EntityList<Observation> list = observations.query()
                     .select("@iot.id", "result", "phenomenonTime")
                     .filter("phenomenonTime ge " + checkInstant.toString())
@@ -114,7 +233,7 @@ class ObsCache {
         if (!Utils.isNullOrEmpty(toDelete)) {
             uploader.delete(toDelete, 10);
         }
-        return cache.get(checkTime);
+        return get(checkTime);
     }
 
     public List<Observation> addToCache(EntityList<Observation> list) {
@@ -123,15 +242,16 @@ class ObsCache {
         while (fullIterator.hasNext()) {
             Observation obs = fullIterator.next();
             TimeObject phenomenonTime = obs.getPhenomenonTime();
-            Observation old = cache.put(phenomenonTime, obs);
+            Observation old = put(phenomenonTime, obs.getId(), obs.getResult());
             Instant instant = FrostUtils.instantFrom(phenomenonTime);
             if (cacheStart == null || instant.isBefore(cacheStart)) {
                 cacheStart = instant;
             }
-            if (deleteDuplicates && old != null && !old.getId().equals(obs.getId())) {
+            if (deleteDuplicates && old != null && old.getId() != null && !old.getId().equals(obs.getId())) {
                 if (toDelete == null) {
                     toDelete = new ArrayList<>();
                 }
+                old.setService(obs.getService());
                 toDelete.add(old);
             }
         }
@@ -141,4 +261,92 @@ class ObsCache {
         return toDelete;
     }
 
+    private Observation toObservation(int idx) {
+        final Observation obs = new Observation();
+        obs.setId(ids[idx]);
+        obs.setResult(results[idx]);
+        return obs;
+    }
+
+    /**
+     * Binary search on (start, end).
+     *
+     * @return the index of the entry, or (-(insertion point) - 1).
+     */
+    private int indexOf(long start, long end) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            int cmp = Long.compare(starts[mid], start);
+            if (cmp == 0) {
+                cmp = Long.compare(ends[mid], end);
+            }
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private void insert(int idx, long start, long end, Id id, Object result) {
+        if (size == starts.length) {
+            final int capacity = Math.max(INITIAL_CAPACITY, size + (size >> 1));
+            bytes += (capacity - starts.length) * SLOT_SIZE;
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            results = Arrays.copyOf(results, capacity);
+        }
+        // Observations mostly arrive in time order, so this usually moves nothing.
+        final int moved = size - idx;
+        if (moved > 0) {
+            System.arraycopy(starts, idx, starts, idx + 1, moved);
+            System.arraycopy(ends, idx, ends, idx + 1, moved);
+            System.arraycopy(ids, idx, ids, idx + 1, moved);
+            System.arraycopy(results, idx, results, idx + 1, moved);
+        }
+        starts[idx] = start;
+        ends[idx] = end;
+        ids[idx] = id;
+        results[idx] = result;
+        size++;
+    }
+
+    private static long startNanos(TimeObject time) {
+        return toNanos(FrostUtils.instantFrom(time));
+    }
+
+    /**
+     * The end of an interval. For an instant the end is the start, so an
+     * instant and an empty interval at the same time are the same key.
+     */
+    private static long endNanos(TimeObject time, long start) {
+        return time.isInterval() ? toNanos(time.getAsInterval().getEnd()) : start;
+    }
+
+    /**
+     * Nanoseconds since the epoch fit in a long between the years 1677 and
+     * 2262. Times outside that range are not cached.
+     */
+    private static boolean isIndexable(TimeObject time) {
+        if (!isIndexable(FrostUtils.instantFrom(time))) {
+            return false;
+        }
+        return !time.isInterval() || isIndexable(time.getAsInterval().getEnd());
+    }
+
+    private static boolean isIndexable(Instant instant) {
+        final long seconds = instant.getEpochSecond();
+        return seconds < MAX_SECONDS && seconds > -MAX_SECONDS;
+    }
+
+    private static long toNanos(Instant instant) {
+        return instant.getEpochSecond() * NANOS_PER_SECOND + instant.getNano();
+    }
+
 }
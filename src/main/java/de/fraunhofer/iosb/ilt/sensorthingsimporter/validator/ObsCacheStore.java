@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2026 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sensorthingsimporter.validator;
+
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.ObservationUploader;
+import de.fraunhofer.iosb.ilt.sta.model.Id;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the ObsCaches of many (Multi)Datastreams, shared by all validator
+ * Threads. A Thread locks the cache of a Datastream while using it, so two
+ * Threads never load the same data. When the estimated memory use exceeds
+ * the limit, the least recently used Datastreams are evicted as a whole.
+ *
+ * @author hylke
+ */
+class ObsCacheStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ObsCacheStore.class.getName());
+
+    private final long maxBytes;
+    private final ObservationUploader uploader;
+    private final boolean deleteDuplicates;
+    /**
+     * The caches, in access order.
+     */
+    private final Map<Id, ObsCache> caches = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes;
+
+    public ObsCacheStore(long maxBytes, ObservationUploader uploader, boolean deleteDuplicates) {
+        this.maxBytes = maxBytes;
+        this.uploader = uploader;
+        this.deleteDuplicates = deleteDuplicates;
+    }
+
+    /**
+     * Get and lock the cache for the given (Multi)Datastream. The cache must
+     * be released with {@link #release(ObsCache)} after use.
+     *
+     * @param dsId The id of the (Multi)Datastream.
+     * @return The locked cache.
+     */
+    public ObsCache acquire(Id dsId) {
+        while (true) {
+            final ObsCache cache;
+            synchronized (this) {
+                cache = caches.computeIfAbsent(dsId, t -> new ObsCache(t, uploader, deleteDuplicates));
+            }
+            cache.getLock().lock();
+            if (!cache.isEvicted()) {
+                return cache;
+            }
+            // Evicted before we got the lock, try again with a new one.
+            cache.getLock().unlock();
+        }
+    }
+
+    /**
+     * Unlock the given cache, and evict caches if the memory limit is
+     * exceeded.
+     *
+     * @param cache The cache to release.
+     */
+    public void release(ObsCache cache) {
+        final long delta = cache.takeBytesDelta();
+        cache.getLock().unlock();
+        synchronized (this) {
+            usedBytes += delta;
+            if (usedBytes > maxBytes) {
+                evict();
+            }
+        }
+    }
+
+    /**
+     * @return The estimated memory use of all caches.
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    private void evict() {
+        final Iterator<ObsCache> it = caches.values().iterator();
+        while (usedBytes > maxBytes && it.hasNext()) {
+            final ObsCache cache = it.next();
+            // Caches in use are skipped, they are released later.
+            if (!cache.getLock().tryLock()) {
+                continue;
+            }
+            try {
+                usedBytes -= cache.evict();
+                it.remove();
+                LOGGER.debug("Evicted cache for {}, {} bytes left in use.", cache.getDsId(), usedBytes);
+            } finally {
+                cache.getLock().unlock();
+            }
+        }
+    }
+
+}
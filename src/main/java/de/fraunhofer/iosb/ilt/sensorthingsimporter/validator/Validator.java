@@ -23,6 +23,10 @@ import de.fraunhofer.iosb.ilt.sensorthingsimporter.ImportException;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.ObservationUploader;
 import de.fraunhofer.iosb.ilt.sta.model.Observation;
 import de.fraunhofer.iosb.ilt.sta.service.SensorThingsService;
+import java.util.BitSet;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  *
@@ -33,8 +37,78 @@ public interface Validator {
     public default void setObservationUploader(ObservationUploader uploader) {
     }
 
+    /**
+     * Called with all Observations of one (Multi)Datastream, before they are
+     * validated one by one, on the same Thread. Validators can use this to
+     * fetch what they need for the whole list at once. The default
+     * {@link #isValid(List)} calls this.
+     *
+     * @param observations The Observations that will be validated.
+     * @throws ImportException If preparing failed. Validation then continues
+     * without preparation.
+     */
+    public default void prepare(List<Observation> observations) throws ImportException {
+        // does nothing by default
+    }
+
     public boolean isValid(Observation obs) throws ImportException;
 
+    /**
+     * Validates all Observations of one (Multi)Datastream. The default
+     * implementation calls {@link #prepare(List)} and then
+     * {@link #isValid(Observation)} for each Observation. Observations that
+     * fail to validate are logged and counted as invalid.
+     *
+     * @param observations The Observations to validate, all of the same
+     * (Multi)Datastream.
+     * @return The indices of the valid Observations.
+     * @throws ImportException If the list as a whole could not be validated.
+     */
+    public default BitSet isValid(List<Observation> observations) throws ImportException {
+        try {
+            prepare(observations);
+        } catch (ImportException | RuntimeException exc) {
+            logFailure("Failed to prepare validation: {}", exc);
+        }
+        final int count = observations.size();
+        final BitSet valid = new BitSet(count);
+        for (int i = 0; i < count; i++) {
+            try {
+                if (isValid(observations.get(i))) {
+                    valid.set(i);
+                }
+            } catch (ImportException | RuntimeException exc) {
+                logFailure("Failed to validate Observation: {}", exc);
+            }
+        }
+        return valid;
+    }
+
+    private static void logFailure(String message, Exception exc) {
+        final Logger logger = LoggerFactory.getLogger(Validator.class.getName());
+        logger.error(message, exc.getMessage());
+        logger.debug("Exception.", exc);
+    }
+
+    /**
+     * Validators with side effects, like setting the id of an Observation to
+     * update or registering it in a cache, are never moved to run before
+     * other validators.
+     *
+     * @return false if the validator only inspects the Observation.
+     */
+    public default boolean hasSideEffects() {
+        return true;
+    }
+
+    /**
+     * @return A short summary of the work done, for the status log, or an
+     * empty String.
+     */
+    public default String getStatistics() {
+        return "";
+    }
+
     /**
      * Always returns true.
      */
@@ -46,5 +120,10 @@ public interface Validator {
             return true;
         }
 
+        @Override
+        public boolean hasSideEffects() {
+            return false;
+        }
+
     }
 }
@@ -57,6 +57,11 @@ public class ValidatorBefore implements Validator, Configurable<SensorThingsServ
         return refTime.isAfter(obsInstant);
     }
 
+    @Override
+    public boolean hasSideEffects() {
+        return false;
+    }
+
     @Override
     public void configure(JsonElement config, SensorThingsService context, Object edtCtx, ConfigEditor<?> configEditor) {
         getConfigEditor(context, edtCtx).setConfig(config);
@@ -23,15 +23,28 @@ import de.fraunhofer.iosb.ilt.configurable.ConfigEditor;
 import de.fraunhofer.iosb.ilt.configurable.ConfigurationException;
 import de.fraunhofer.iosb.ilt.configurable.annotations.ConfigurableField;
 import de.fraunhofer.iosb.ilt.configurable.editor.EditorBoolean;
+import de.fraunhofer.iosb.ilt.configurable.editor.EditorInt;
 import de.fraunhofer.iosb.ilt.configurable.editor.EditorString;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.ImportException;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.FrostUtils;
 import de.fraunhofer.iosb.ilt.sta.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.sta.dao.BaseDao;
 import de.fraunhofer.iosb.ilt.sta.model.Datastream;
+import de.fraunhofer.iosb.ilt.sta.model.Id;
 import de.fraunhofer.iosb.ilt.sta.model.MultiDatastream;
 import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import de.fraunhofer.iosb.ilt.sta.model.TimeObject;
 import de.fraunhofer.iosb.ilt.sta.service.SensorThingsService;
+import java.math.BigDecimal;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,6 +58,8 @@ public class ValidatorByParameter extends AbstractConfigurable<SensorThingsServi
      * The logger for this class.
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(ValidatorByParameter.class);
+    private static final char KEY_SEPARATOR = '\u0000';
+    private static final String KEY_NULL = "-";
 
     @ConfigurableField(
             label = "parameters",
@@ -67,8 +82,35 @@ public class ValidatorByParameter extends AbstractConfigurable<SensorThingsServi
     @EditorBoolean.EdOptsBool()
     private boolean update;
 
+    @ConfigurableField(
+            label = "Bulk",
+            description = "Load the parameters of all existing observations of a Datastream with one paged query, and check for duplicates locally. "
+            + "Only parameters that repeat within the import are checked against the server again.",
+            editor = EditorBoolean.class,
+            optional = true)
+    @EditorBoolean.EdOptsBool()
+    private boolean bulk;
+
+    @ConfigurableField(
+            label = "Bulk Datastreams",
+            description = "The number of Datastreams to keep the loaded parameters of. The least recently used are dropped first.",
+            editor = EditorInt.class,
+            optional = true)
+    @EditorInt.EdOptsInt(dflt = 16, min = 1, max = Integer.MAX_VALUE, step = 1)
+    private int bulkDatastreams;
+
     private List<String> parameters;
 
+    /**
+     * The loaded parameters, by (Multi)Datastream id, in access order.
+     */
+    private final Map<Id, ParameterIndex> indexes = new LinkedHashMap<Id, ParameterIndex>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Id, ParameterIndex> eldest) {
+            return size() > Math.max(1, bulkDatastreams);
+        }
+    };
+
     @Override
     public void configure(JsonElement config, SensorThingsService context, Object edtCtx, ConfigEditor<?> configEditor) throws ConfigurationException {
         super.configure(config, context, edtCtx, configEditor);
@@ -102,47 +144,175 @@ public class ValidatorByParameter extends AbstractConfigurable<SensorThingsServi
         return filter.toString();
     }
 
+    private String buildKey(TimeObject phenTime, Map<String, Object> obsParameters) {
+        StringBuilder key = new StringBuilder();
+        if (checkPhenomenonTime) {
+            if (phenTime == null) {
+                key.append(KEY_NULL);
+            } else {
+                key.append(FrostUtils.instantFrom(phenTime));
+                if (phenTime.isInterval()) {
+                    key.append('/').append(phenTime.getAsInterval().getEnd());
+                }
+            }
+        }
+        for (String param : parameters) {
+            key.append(KEY_SEPARATOR);
+            Object value = obsParameters == null ? null : obsParameters.get(param);
+            if (value == null) {
+                key.append(KEY_NULL);
+            } else if (value instanceof Number) {
+                key.append('n').append(normaliseNumber((Number) value));
+            } else {
+                key.append('s').append(value.toString());
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Makes sure numbers that are equal on the server, like 5 and 5.0, give
+     * the same key.
+     */
+    private static String normaliseNumber(Number value) {
+        try {
+            return new BigDecimal(value.toString()).stripTrailingZeros().toPlainString();
+        } catch (NumberFormatException ex) {
+            // NaN or Infinity
+            return value.toString();
+        }
+    }
+
+    private ParameterIndex getIndex(Observation obs) throws ServiceFailureException, ImportException {
+        Datastream ds = obs.getDatastream();
+        if (ds != null) {
+            return getIndex(ds.getId(), ds.observations());
+        }
+        MultiDatastream mds = obs.getMultiDatastream();
+        if (mds != null) {
+            return getIndex(mds.getId(), mds.observations());
+        }
+        throw new ImportException("Observation has no Datastream of Multidatastream set!");
+    }
+
+    private ParameterIndex getIndex(Id dsId, BaseDao<Observation> observations) throws ServiceFailureException {
+        final ParameterIndex index;
+        synchronized (indexes) {
+            index = indexes.computeIfAbsent(dsId, t -> new ParameterIndex(t));
+        }
+        synchronized (index) {
+            index.loadIfNeeded(observations);
+        }
+        return index;
+    }
+
+    private BaseDao<Observation> observationsOf(Observation obs) throws ServiceFailureException, ImportException {
+        Datastream ds = obs.getDatastream();
+        if (ds != null) {
+            return ds.observations();
+        }
+        MultiDatastream mds = obs.getMultiDatastream();
+        if (mds != null) {
+            return mds.observations();
+        }
+        throw new ImportException("Observation has no Datastream of Multidatastream set!");
+    }
+
+    /**
+     * Asks the server for an Observation with the same parameters.
+     *
+     * @return The id of the existing Observation, or null.
+     */
+    private Id findExisting(Observation obs) throws ServiceFailureException, ImportException {
+        Observation first = observationsOf(obs)
+                .query()
+                .select("@iot.id", "Parameters")
+                .filter(buildFilter(obs))
+                .first();
+        return first == null ? null : first.getId();
+    }
+
+    /**
+     * Must be called while holding the lock on the index.
+     */
+    private boolean isValid(Observation obs, ParameterIndex index) throws ServiceFailureException, ImportException {
+        String key = buildKey(obs.getPhenomenonTime(), obs.getParameters());
+        Id existingId = index.ids.get(key);
+        if (existingId == null && index.pending.contains(key)) {
+            // Passed before in this import, but it may have been rejected
+            // later on, or failed to upload. Only the server knows.
+            existingId = findExisting(obs);
+            if (existingId != null) {
+                index.pending.remove(key);
+                index.ids.put(key, existingId);
+            }
+        }
+        if (existingId == null) {
+            index.pending.add(key);
+            return true;
+        }
+        LOGGER.trace("Observation {} with given Parameters {} = {} exists.", existingId, parameters, obs.getParameters());
+        if (update) {
+            obs.setId(existingId);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * In bulk mode, checks the entire list with one lookup of the loaded
+     * parameters.
+     */
     @Override
-    public boolean isValid(Observation obs) throws ImportException {
-        String filter = buildFilter(obs);
+    public BitSet isValid(List<Observation> observations) throws ImportException {
+        if (!bulk || observations.isEmpty()) {
+            return Validator.super.isValid(observations);
+        }
+        final int count = observations.size();
+        final BitSet valid = new BitSet(count);
         try {
-            Datastream ds = obs.getDatastream();
-            if (ds != null) {
-                Observation first = ds.observations()
-                        .query()
-                        .select("@iot.id", "Parameters")
-                        .filter(filter)
-                        .first();
-                if (first == null) {
-                    return true;
-                } else {
-                    LOGGER.trace("Observation {} with given Parameters {} = {} exists.", first.getId(), parameters, obs.getParameters());
-                    if (update) {
-                        obs.setId(first.getId());
-                        return true;
+            final ParameterIndex index = getIndex(observations.get(0));
+            synchronized (index) {
+                for (int i = 0; i < count; i++) {
+                    try {
+                        if (isValid(observations.get(i), index)) {
+                            valid.set(i);
+                        }
+                    } catch (ServiceFailureException | ImportException | RuntimeException exc) {
+                        LOGGER.error("Failed to validate Observation: {}", exc.getMessage());
+                        LOGGER.debug("Exception.", exc);
                     }
-                    return false;
                 }
             }
-            MultiDatastream mds = obs.getMultiDatastream();
-            if (mds != null) {
-                Observation first = mds.observations()
-                        .query()
-                        .select("@iot.id", "Parameters")
-                        .filter(filter)
-                        .first();
-                if (first == null) {
-                    return true;
-                } else {
-                    LOGGER.trace("Observation {} with given Parameter {} = {} exists.", first.getId(), parameters, obs.getParameters());
-                    if (update) {
-                        obs.setId(first.getId());
-                        return true;
-                    }
-                    return false;
+            return valid;
+        } catch (ServiceFailureException ex) {
+            throw new ImportException("Failed to validate.", ex);
+        }
+    }
+
+    @Override
+    public boolean isValid(Observation obs) throws ImportException {
+        if (bulk) {
+            try {
+                final ParameterIndex index = getIndex(obs);
+                synchronized (index) {
+                    return isValid(obs, index);
                 }
+            } catch (ServiceFailureException ex) {
+                throw new ImportException("Failed to validate.", ex);
+            }
+        }
+        try {
+            Id existingId = findExisting(obs);
+            if (existingId == null) {
+                return true;
+            }
+            LOGGER.trace("Observation {} with given Parameters {} = {} exists.", existingId, parameters, obs.getParameters());
+            if (update) {
+                obs.setId(existingId);
+                return true;
             }
-            throw new ImportException("Observation has no Datastream of Multidatastream set!");
+            return false;
         } catch (ServiceFailureException ex) {
             throw new ImportException("Failed to validate.", ex);
         }
@@ -176,4 +346,42 @@ public class ValidatorByParameter extends AbstractConfigurable<SensorThingsServi
         this.update = update;
     }
 
+    /**
+     * The parameter keys of all existing Observations of one
+     * (Multi)Datastream, with the ids of the Observations, and the keys of
+     * Observations that passed in this import, but may not exist yet.
+     */
+    private class ParameterIndex {
+
+        private final Id dsId;
+        private final Map<String, Id> ids = new HashMap<>();
+        private final Set<String> pending = new HashSet<>();
+        private boolean loaded = false;
+
+        public ParameterIndex(Id dsId) {
+            this.dsId = dsId;
+        }
+
+        private void loadIfNeeded(BaseDao<Observation> observations) throws ServiceFailureException {
+            if (loaded) {
+                return;
+            }
+            final String[] select = checkPhenomenonTime
+                    ? new String[]{"@iot.id", "Parameters", "phenomenonTime"}
+                    : new String[]{"@iot.id", "Parameters"};
+            Iterator<Observation> it = observations.query()
+                    .select(select)
+                    .orderBy("id asc")
+                    .top(10000)
+                    .list()
+                    .fullIterator();
+            while (it.hasNext()) {
+                Observation existing = it.next();
+                ids.putIfAbsent(buildKey(existing.getPhenomenonTime(), existing.getParameters()), existing.getId());
+            }
+            loaded = true;
+            LOGGER.debug("Loaded {} parameter sets of {}.", ids.size(), dsId);
+        }
+    }
+
 }
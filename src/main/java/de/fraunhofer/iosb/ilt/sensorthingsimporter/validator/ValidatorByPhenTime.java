@@ -20,17 +20,25 @@ package de.fraunhofer.iosb.ilt.sensorthingsimporter.validator;
 import de.fraunhofer.iosb.ilt.configurable.AnnotatedConfigurable;
 import de.fraunhofer.iosb.ilt.configurable.annotations.ConfigurableField;
 import de.fraunhofer.iosb.ilt.configurable.editor.EditorBoolean;
+import de.fraunhofer.iosb.ilt.configurable.editor.EditorInt;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.ImportException;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.ObservationUploader;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.FrostUtils;
 import de.fraunhofer.iosb.ilt.sta.ServiceFailureException;
 import de.fraunhofer.iosb.ilt.sta.dao.BaseDao;
 import de.fraunhofer.iosb.ilt.sta.model.Datastream;
+import de.fraunhofer.iosb.ilt.sta.model.Id;
 import de.fraunhofer.iosb.ilt.sta.model.MultiDatastream;
 import de.fraunhofer.iosb.ilt.sta.model.Observation;
 import de.fraunhofer.iosb.ilt.sta.model.TimeObject;
 import de.fraunhofer.iosb.ilt.sta.service.SensorThingsService;
 import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -60,22 +68,38 @@ public class ValidatorByPhenTime implements Validator, AnnotatedConfigurable<Sen
     @EditorBoolean.EdOptsBool(dflt = true)
     private boolean deleteDuplicates;
 
+    @ConfigurableField(editor = EditorInt.class, optional = true,
+            label = "Cache Size", description = "The estimated memory (MB) the cache may use, shared by all validator threads. The least recently used Datastreams are evicted first.")
+    @EditorInt.EdOptsInt(dflt = 256, min = 1, max = Integer.MAX_VALUE, step = 64)
+    private int cacheSizeMb;
+
+    @ConfigurableField(editor = EditorBoolean.class, optional = true,
+            label = "Bulk", description = "When not caching, fetch the existing observations for all observations of a Datastream with one query, instead of one query per observation.")
+    @EditorBoolean.EdOptsBool()
+    private boolean bulk;
+
     private ObservationUploader uploader;
 
-    private final ThreadLocal<ObsCache> cacheHolder = new ThreadLocal<>();
+    private volatile ObsCacheStore cacheStore;
+    private final ThreadLocal<TimeWindow> windowHolder = new ThreadLocal<>();
 
     @Override
     public void setObservationUploader(ObservationUploader uploader) {
         this.uploader = uploader;
     }
 
-    private ObsCache getCache() {
-        ObsCache cache = cacheHolder.get();
-        if (cache == null) {
-            cache = new ObsCache(uploader, deleteDuplicates);
-            cacheHolder.set(cache);
+    private ObsCacheStore getCacheStore() {
+        ObsCacheStore store = cacheStore;
+        if (store == null) {
+            synchronized (this) {
+                store = cacheStore;
+                if (store == null) {
+                    store = new ObsCacheStore(Math.max(1, cacheSizeMb) * 1024L * 1024L, uploader, deleteDuplicates);
+                    cacheStore = store;
+                }
+            }
         }
-        return cache;
+        return store;
     }
 
     private boolean resultCompare(Object one, Object two) {
@@ -129,15 +153,7 @@ public class ValidatorByPhenTime implements Validator, AnnotatedConfigurable<Sen
         return false;
     }
 
-    private BaseDao<Observation> validateCache(Datastream d, MultiDatastream m) {
-        if (cacheObservations) {
-            if (d != null) {
-                getCache().clearIfDifferent(d.getId());
-            }
-            if (m != null) {
-                getCache().clearIfDifferent(m.getId());
-            }
-        }
+    private BaseDao<Observation> observationsOf(Datastream d, MultiDatastream m) {
         if (d != null) {
             return d.observations();
         }
@@ -147,45 +163,199 @@ public class ValidatorByPhenTime implements Validator, AnnotatedConfigurable<Sen
         throw new IllegalArgumentException("Must pass either a Datastream or multiDatastream.");
     }
 
-    private Observation getObservation(TimeObject phenTime, BaseDao<Observation> observations) throws ServiceFailureException {
-        if (cacheObservations) {
-            return getCache().getFromCache(phenTime, observations);
+    private Observation getObservation(ObsCache cache, Id dsId, TimeObject phenTime, BaseDao<Observation> observations) throws ServiceFailureException {
+        if (cache != null) {
+            return cache.getFromCache(phenTime, observations);
+        }
+        final TimeWindow window = windowHolder.get();
+        if (window != null && window.covers(dsId, phenTime)) {
+            return window.observations.get(phenTime);
         }
         return observations.query().select("@iot.id", "result").filter("phenomenonTime eq " + phenTime.toString()).first();
     }
 
-    private void addToCache(Observation obs) {
-        if (cacheObservations) {
-            getCache().put(obs.getPhenomenonTime(), obs);
+    private void addToCache(ObsCache cache, Id dsId, Observation obs) {
+        if (cache != null) {
+            cache.put(obs.getPhenomenonTime(), obs);
+            return;
+        }
+        final TimeWindow window = windowHolder.get();
+        if (window != null && window.covers(dsId, obs.getPhenomenonTime())) {
+            window.observations.put(obs.getPhenomenonTime(), obs);
+        }
+    }
+
+    private static Id getDsId(Datastream d, MultiDatastream m) {
+        if (d != null) {
+            return d.getId();
+        }
+        if (m != null) {
+            return m.getId();
+        }
+        throw new IllegalArgumentException("Must pass either a Datastream or multiDatastream.");
+    }
+
+    @Override
+    public void prepare(List<Observation> obsList) throws ImportException {
+        windowHolder.remove();
+        if (cacheObservations || !bulk || obsList.isEmpty()) {
+            return;
+        }
+        Instant min = null;
+        Instant max = null;
+        for (Observation obs : obsList) {
+            final TimeObject phenTime = obs.getPhenomenonTime();
+            if (phenTime == null) {
+                continue;
+            }
+            final Instant start = FrostUtils.instantFrom(phenTime);
+            final Instant end = phenTime.isInterval() ? phenTime.getAsInterval().getEnd() : start;
+            if (min == null || start.isBefore(min)) {
+                min = start;
+            }
+            if (max == null || end.isAfter(max)) {
+                max = end;
+            }
+        }
+        if (min == null) {
+            return;
+        }
+        try {
+            final Observation firstObs = obsList.get(0);
+            final Datastream d = firstObs.getDatastream();
+            final MultiDatastream m = firstObs.getMultiDatastream();
+            final BaseDao<Observation> observations = observationsOf(d, m);
+            final TimeWindow window = new TimeWindow(getDsId(d, m), min, max);
+            Iterator<Observation> it = observations.query()
+                    .select("@iot.id", "result", "phenomenonTime")
+                    .filter("phenomenonTime ge " + min + " and phenomenonTime le " + max)
+                    .orderBy("phenomenonTime asc")
+                    .top(10000)
+                    .list()
+                    .fullIterator();
+            while (it.hasNext()) {
+                final Observation existing = it.next();
+                window.observations.putIfAbsent(existing.getPhenomenonTime(), existing);
+            }
+            LOGGER.debug("Fetched {} observations between {} and {} for {} new ones.", window.observations.size(), min, max, obsList.size());
+            windowHolder.set(window);
+        } catch (ServiceFailureException ex) {
+            LOGGER.debug("Exception fetching validation observations: {}", ex.getMessage());
+            throw new ImportException("Failed to fetch validation observations.", ex);
         }
     }
 
     @Override
     public boolean isValid(Observation obs) throws ImportException {
+        ObsCache cache = null;
         try {
             Datastream d = obs.getDatastream();
             MultiDatastream m = obs.getMultiDatastream();
-            BaseDao<Observation> observations = validateCache(d, m);
-
-            TimeObject phenomenonTime = obs.getPhenomenonTime();
-            Observation first = getObservation(phenomenonTime, observations);
-            if (first == null) {
-                addToCache(obs);
-                return true;
-            } else {
-                if (!resultCompare(obs.getResult(), first.getResult())) {
-                    LOGGER.debug("Observation {} with given phenomenonTime {} exists, but result not the same. {} != {} .", first.getId(), phenomenonTime, obs.getResult(), first.getResult());
-                    if (update) {
-                        obs.setId(first.getId());
-                        addToCache(obs);
-                        return true;
+            if (cacheObservations) {
+                cache = getCacheStore().acquire(getDsId(d, m));
+            }
+            return isValid(obs, d, m, cache);
+        } catch (ServiceFailureException ex) {
+            LOGGER.debug("Exception fetching validation observations: {}", ex.getMessage());
+            throw new ImportException("Failed to validate.", ex);
+        } finally {
+            if (cache != null) {
+                cacheStore.release(cache);
+            }
+        }
+    }
+
+    /**
+     * Prepares the time window, or locks the cache of the (Multi)Datastream
+     * once for the entire list.
+     */
+    @Override
+    public BitSet isValid(List<Observation> obsList) throws ImportException {
+        final int count = obsList.size();
+        final BitSet valid = new BitSet(count);
+        if (count == 0) {
+            return valid;
+        }
+        try {
+            prepare(obsList);
+        } catch (ImportException exc) {
+            LOGGER.error("Failed to prepare validation: {}", exc.getMessage());
+            LOGGER.debug("Exception.", exc);
+        }
+        ObsCache cache = null;
+        try {
+            final Observation firstObs = obsList.get(0);
+            final Datastream d = firstObs.getDatastream();
+            final MultiDatastream m = firstObs.getMultiDatastream();
+            if (cacheObservations) {
+                cache = getCacheStore().acquire(getDsId(d, m));
+            }
+            for (int i = 0; i < count; i++) {
+                try {
+                    if (isValid(obsList.get(i), d, m, cache)) {
+                        valid.set(i);
                     }
+                } catch (ServiceFailureException ex) {
+                    LOGGER.error("Failed to validate Observation: {}", ex.getMessage());
+                    LOGGER.debug("Exception.", ex);
                 }
-                return false;
             }
+            return valid;
         } catch (ServiceFailureException ex) {
             LOGGER.debug("Exception fetching validation observations: {}", ex.getMessage());
             throw new ImportException("Failed to validate.", ex);
+        } finally {
+            windowHolder.remove();
+            if (cache != null) {
+                cacheStore.release(cache);
+            }
+        }
+    }
+
+    private boolean isValid(Observation obs, Datastream d, MultiDatastream m, ObsCache cache) throws ServiceFailureException {
+        BaseDao<Observation> observations = observationsOf(d, m);
+        Id dsId = getDsId(d, m);
+        TimeObject phenomenonTime = obs.getPhenomenonTime();
+        Observation first = getObservation(cache, dsId, phenomenonTime, observations);
+        if (first == null) {
+            addToCache(cache, dsId, obs);
+            return true;
+        } else {
+            if (!resultCompare(obs.getResult(), first.getResult())) {
+                LOGGER.debug("Observation {} with given phenomenonTime {} exists, but result not the same. {} != {} .", first.getId(), phenomenonTime, obs.getResult(), first.getResult());
+                if (update) {
+                    obs.setId(first.getId());
+                    addToCache(cache, dsId, obs);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The existing Observations of one (Multi)Datastream in a time window,
+     * fetched in bulk for a list of new Observations.
+     */
+    private static class TimeWindow {
+
+        private final Id dsId;
+        private final Instant start;
+        private final Instant end;
+        private final Map<TimeObject, Observation> observations = new HashMap<>();
+
+        public TimeWindow(Id dsId, Instant start, Instant end) {
+            this.dsId = dsId;
+            this.start = start;
+            this.end = end;
+        }
+
+        public boolean covers(Id id, TimeObject phenTime) {
+            if (phenTime == null || !dsId.equals(id)) {
+                return false;
+            }
+            final Instant instant = FrostUtils.instantFrom(phenTime);
+            return !instant.isBefore(start) && !instant.isAfter(end);
         }
     }
 
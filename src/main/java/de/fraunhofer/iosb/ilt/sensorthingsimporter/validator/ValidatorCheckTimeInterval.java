@@ -78,6 +78,11 @@ public class ValidatorCheckTimeInterval implements Validator, AnnotatedConfigura
         return false;
     }
 
+    @Override
+    public boolean hasSideEffects() {
+        return false;
+    }
+
     public String getDuration() {
         return duration;
     }
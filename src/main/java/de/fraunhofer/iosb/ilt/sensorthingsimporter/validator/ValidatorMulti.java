@@ -22,30 +22,68 @@ import de.fraunhofer.iosb.ilt.configurable.ConfigEditor;
 import de.fraunhofer.iosb.ilt.configurable.Configurable;
 import de.fraunhofer.iosb.ilt.configurable.ConfigurationException;
 import de.fraunhofer.iosb.ilt.configurable.EditorFactory;
+import de.fraunhofer.iosb.ilt.configurable.editor.EditorBoolean;
 import de.fraunhofer.iosb.ilt.configurable.editor.EditorList;
 import de.fraunhofer.iosb.ilt.configurable.editor.EditorMap;
 import de.fraunhofer.iosb.ilt.configurable.editor.EditorSubclass;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.ImportException;
 import de.fraunhofer.iosb.ilt.sta.model.Observation;
 import de.fraunhofer.iosb.ilt.sta.service.SensorThingsService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
+ * Runs several validators, stopping at the first one that rejects. With
+ * Adaptive Order, validators without side effects are reordered at runtime,
+ * so that cheap and selective validators run first. Validators with side
+ * effects always run after those, in the configured order.
  *
  * @author scf
  */
 public class ValidatorMulti implements Validator, Configurable<SensorThingsService, Object> {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(ValidatorMulti.class.getName());
+    /**
+     * The number of validated Observations after which the order is updated.
+     */
+    private static final int REORDER_INTERVAL = 1000;
+    /**
+     * The rejection rate used for validators that never reject, so that their
+     * cost still counts.
+     */
+    private static final double MIN_REJECT_RATE = 0.0001;
+
     private EditorMap<Map<String, Object>> editor;
     private EditorList<Validator, EditorSubclass<SensorThingsService, Object, Validator>> editorValidators;
+    private EditorBoolean editorAdaptive;
 
     public List<Validator> validators;
 
+    private boolean adaptive;
+    private Stats[] stats;
+    private volatile int[] order;
+    private final AtomicLong validatedCount = new AtomicLong();
+
     @Override
     public void configure(JsonElement config, SensorThingsService context, Object edtCtx, ConfigEditor<?> configEditor) throws ConfigurationException {
         getConfigEditor(context, edtCtx).setConfig(config);
         validators = editorValidators.getValue();
+        adaptive = editorAdaptive.getValue();
+        final int count = validators.size();
+        stats = new Stats[count];
+        order = new int[count];
+        for (int i = 0; i < count; i++) {
+            stats[i] = new Stats();
+            order[i] = i;
+        }
     }
 
     @Override
@@ -59,18 +97,159 @@ public class ValidatorMulti implements Validator, Configurable<SensorThingsServi
             };
             editorValidators = new EditorList<>(factory, "Validators", "The validators to use.");
             editor.addOption("validators", editorValidators, false);
+
+            editorAdaptive = new EditorBoolean(false, "Adaptive Order", "Run the validators without side effects in order of measured cost and rejection rate, instead of the configured order.");
+            editor.addOption("adaptiveOrder", editorAdaptive, true);
         }
         return editor;
     }
 
+    @Override
+    public void prepare(List<Observation> observations) throws ImportException {
+        for (Validator validator : validators) {
+            validator.prepare(observations);
+        }
+    }
+
     @Override
     public boolean isValid(Observation obs) throws ImportException {
+        boolean valid = true;
+        for (int idx : order) {
+            final long startNanos = System.nanoTime();
+            valid = validators.get(idx).isValid(obs);
+            stats[idx].register(System.nanoTime() - startNanos, 1, valid ? 0 : 1);
+            if (!valid) {
+                break;
+            }
+        }
+        countValidated(1);
+        return valid;
+    }
+
+    /**
+     * Passes the Observations that are still valid to each validator in turn,
+     * using their batch implementations.
+     */
+    @Override
+    public BitSet isValid(List<Observation> observations) throws ImportException {
+        final int count = observations.size();
+        final BitSet valid = new BitSet(count);
+        valid.set(0, count);
+        for (int idx : order) {
+            if (valid.isEmpty()) {
+                break;
+            }
+            final int remainingCount = valid.cardinality();
+            final List<Observation> remaining = new ArrayList<>(remainingCount);
+            final int[] positions = new int[remainingCount];
+            for (int i = valid.nextSetBit(0), j = 0; i >= 0; i = valid.nextSetBit(i + 1), j++) {
+                remaining.add(observations.get(i));
+                positions[j] = i;
+            }
+            final long startNanos = System.nanoTime();
+            final BitSet remainingValid = validators.get(idx).isValid(remaining);
+            final long durationNanos = System.nanoTime() - startNanos;
+            int rejected = 0;
+            for (int j = 0; j < remainingCount; j++) {
+                if (!remainingValid.get(j)) {
+                    valid.clear(positions[j]);
+                    rejected++;
+                }
+            }
+            stats[idx].register(durationNanos, remainingCount, rejected);
+        }
+        countValidated(count);
+        return valid;
+    }
+
+    private void countValidated(int count) {
+        if (!adaptive) {
+            return;
+        }
+        final long before = validatedCount.getAndAdd(count);
+        if (before / REORDER_INTERVAL != (before + count) / REORDER_INTERVAL) {
+            reorder();
+        }
+    }
+
+    @Override
+    public boolean hasSideEffects() {
         for (Validator validator : validators) {
-            if (!validator.isValid(obs)) {
-                return false;
+            if (validator.hasSideEffects()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String getStatistics() {
+        StringBuilder result = new StringBuilder();
+        for (int idx : order) {
+            if (result.length() > 0) {
+                result.append(", ");
+            }
+            final Stats stat = stats[idx];
+            result.append(validators.get(idx).getClass().getSimpleName().replaceFirst("^Validator", ""))
+                    .append(String.format(" %.3fms %.0f%%", stat.getAverageNanos() / 1e6, stat.getRejectRate() * 100));
+        }
+        return result.toString();
+    }
+
+    private synchronized void reorder() {
+        final List<Integer> pure = new ArrayList<>();
+        final List<Integer> sideEffects = new ArrayList<>();
+        for (int i = 0; i < validators.size(); i++) {
+            if (validators.get(i).hasSideEffects()) {
+                sideEffects.add(i);
+            } else {
+                pure.add(i);
+            }
+        }
+        pure.sort(Comparator.comparingDouble(i -> stats[i].getRank()));
+        pure.addAll(sideEffects);
+        final int[] newOrder = pure.stream().mapToInt(Integer::intValue).toArray();
+        if (!Arrays.equals(newOrder, order)) {
+            order = newOrder;
+            LOGGER.debug("Validator order changed: {}", getStatistics());
+        }
+    }
+
+    /**
+     * The measured cost and rejection rate of one validator.
+     */
+    private static class Stats {
+
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder rejects = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        public void register(long durationNanos, int count, int rejected) {
+            calls.add(count);
+            nanos.add(durationNanos);
+            rejects.add(rejected);
+        }
+
+        public double getAverageNanos() {
+            final long count = calls.sum();
+            return count == 0 ? 0 : (double) nanos.sum() / count;
+        }
+
+        public double getRejectRate() {
+            final long count = calls.sum();
+            return count == 0 ? 0 : (double) rejects.sum() / count;
+        }
+
+        /**
+         * The expected cost per rejected Observation. Validators that were
+         * never called rank first, so they get measured.
+         */
+        public double getRank() {
+            if (calls.sum() == 0) {
+                return 0;
             }
+            return getAverageNanos() / Math.max(getRejectRate(), MIN_REJECT_RATE);
         }
-        return true;
     }
 
 }
@@ -18,20 +18,37 @@
 package de.fraunhofer.iosb.ilt.sensorthingsimporter.validator;
 
 import com.google.gson.JsonElement;
+import de.fraunhofer.iosb.ilt.configurable.AnnotatedConfigurable;
 import de.fraunhofer.iosb.ilt.configurable.ConfigEditor;
-import de.fraunhofer.iosb.ilt.configurable.Configurable;
-import de.fraunhofer.iosb.ilt.configurable.editor.EditorNull;
+import de.fraunhofer.iosb.ilt.configurable.ConfigurationException;
+import de.fraunhofer.iosb.ilt.configurable.annotations.ConfigurableField;
+import de.fraunhofer.iosb.ilt.configurable.editor.EditorBoolean;
+import de.fraunhofer.iosb.ilt.configurable.editor.EditorInt;
+import de.fraunhofer.iosb.ilt.configurable.editor.EditorString;
 import de.fraunhofer.iosb.ilt.sensorthingsimporter.ImportException;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.ObservationUploader;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.WatermarkFetcher;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.WatermarkStore;
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.utils.WatermarkStore.Watermark;
 import de.fraunhofer.iosb.ilt.sta.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.sta.Utils;
+import de.fraunhofer.iosb.ilt.sta.dao.BaseDao;
 import de.fraunhofer.iosb.ilt.sta.model.Datastream;
+import de.fraunhofer.iosb.ilt.sta.model.Entity;
 import de.fraunhofer.iosb.ilt.sta.model.Id;
 import de.fraunhofer.iosb.ilt.sta.model.MultiDatastream;
 import de.fraunhofer.iosb.ilt.sta.model.Observation;
 import de.fraunhofer.iosb.ilt.sta.model.TimeObject;
 import de.fraunhofer.iosb.ilt.sta.service.SensorThingsService;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.time.Instant;
-import java.util.HashMap;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Checks if the observation has a phenomenonTime that is later than the latest
@@ -39,53 +56,126 @@ import java.util.Map;
  *
  * @author scf
  */
-public class ValidatorNewer implements Validator, Configurable<SensorThingsService, Object> {
+public class ValidatorNewer implements Validator, AnnotatedConfigurable<SensorThingsService, Object> {
 
-    private EditorNull editor = new EditorNull("Validator", "Validates the observation against the datastream");
-    private final Map<Id, Instant> datastreamCache = new HashMap<>();
-    private final Map<Id, Instant> multiDatastreamCache = new HashMap<>();
+    private static final Logger LOGGER = LoggerFactory.getLogger(ValidatorNewer.class);
+
+    @ConfigurableField(editor = EditorBoolean.class, optional = true,
+            label = "Warm Up",
+            description = "On the first unknown (Multi)Datastream, fetch the latest phenomenonTime of all "
+                    + "(Multi)Datastreams in paged requests, instead of one request per (Multi)Datastream.")
+    @EditorBoolean.EdOptsBool()
+    private boolean warmUp;
+
+    @ConfigurableField(editor = EditorString.class, optional = true,
+            label = "Warm Up Filter",
+            description = "The filter limiting the (Multi)Datastreams to warm up for.")
+    @EditorString.EdOptsString(dflt = "")
+    private String warmUpFilter;
+
+    @ConfigurableField(editor = EditorString.class, optional = true,
+            label = "Watermark File",
+            description = "A file to keep the latest phenomenonTime of each Datastream in between runs. "
+                    + "Use one file per server. Leave empty to always ask the server.")
+    @EditorString.EdOptsString(dflt = "")
+    private String watermarkFile;
+
+    @ConfigurableField(editor = EditorInt.class, optional = true,
+            label = "Watermark Max Age",
+            description = "The time (s) after which a stored watermark is checked against the server again.")
+    @EditorInt.EdOptsInt(dflt = 86400, min = 0, max = Integer.MAX_VALUE, step = 3600)
+    private int watermarkMaxAgeSeconds;
+
+    private final Map<Id, Instant> datastreamCache = new ConcurrentHashMap<>();
+    private final Map<Id, Instant> multiDatastreamCache = new ConcurrentHashMap<>();
+    private WatermarkStore watermarkStore;
+    private boolean warmedUpDatastreams;
+    private boolean warmedUpMultiDatastreams;
+
+    @Override
+    public void configure(JsonElement config, SensorThingsService context, Object edtCtx, ConfigEditor<?> configEditor) throws ConfigurationException {
+        AnnotatedConfigurable.super.configure(config, context, edtCtx, configEditor);
+        if (!Utils.isNullOrEmpty(watermarkFile)) {
+            try {
+                watermarkStore = WatermarkStore.open(Paths.get(watermarkFile));
+            } catch (IOException ex) {
+                throw new ConfigurationException("Failed to open watermark file " + watermarkFile, ex);
+            }
+        }
+    }
+
+    @Override
+    public void setObservationUploader(ObservationUploader uploader) {
+        if (watermarkStore != null) {
+            uploader.setWatermarkStore(watermarkStore);
+        }
+    }
 
     @Override
     public boolean isValid(Observation obs) throws ImportException {
+        return latestFor(obs).isBefore(startOf(obs));
+    }
+
+    /**
+     * Looks up the latest phenomenonTime of the (Multi)Datastream only once
+     * for the entire list.
+     */
+    @Override
+    public BitSet isValid(List<Observation> observations) throws ImportException {
+        final int count = observations.size();
+        final BitSet valid = new BitSet(count);
+        if (count == 0) {
+            return valid;
+        }
+        final Instant latest = latestFor(observations.get(0));
+        for (int i = 0; i < count; i++) {
+            if (latest.isBefore(startOf(observations.get(i)))) {
+                valid.set(i);
+            }
+        }
+        return valid;
+    }
+
+    private Instant latestFor(Observation obs) throws ImportException {
         try {
-            Instant latest;
             Datastream ds = obs.getDatastream();
             if (ds == null) {
                 MultiDatastream mds = obs.getMultiDatastream();
                 if (mds == null) {
                     throw new ImportException("Observation has no Datastream of Multidatastream set!");
                 }
-                latest = getTimeForMultiDatastream(mds);
-            } else {
-                latest = getTimeForDatastream(ds);
+                return getTimeForMultiDatastream(mds);
             }
-            TimeObject phenomenonTime = obs.getPhenomenonTime();
-            Instant obsInstant;
-            if (phenomenonTime.isInterval()) {
-                obsInstant = phenomenonTime.getAsInterval().getStart();
-            } else {
-                obsInstant = phenomenonTime.getAsDateTime().toInstant();
-            }
-            return latest.isBefore(obsInstant);
+            return getTimeForDatastream(ds);
         } catch (ServiceFailureException ex) {
             throw new ImportException("Failed to validate.", ex);
         }
     }
 
+    private static Instant startOf(Observation obs) {
+        TimeObject phenomenonTime = obs.getPhenomenonTime();
+        if (phenomenonTime.isInterval()) {
+            return phenomenonTime.getAsInterval().getStart();
+        }
+        return phenomenonTime.getAsDateTime().toInstant();
+    }
+
+    @Override
+    public boolean hasSideEffects() {
+        return false;
+    }
+
     private Instant getTimeForDatastream(Datastream ds) throws ServiceFailureException {
         Id dsId = ds.getId();
         Instant latest = datastreamCache.get(dsId);
         if (latest == null) {
-            Observation firstObs = ds.observations().query().select("@iot.id", "phenomenonTime").orderBy("phenomenonTime desc").first();
-            if (firstObs == null) {
-                latest = Instant.MIN;
-            } else {
-                TimeObject phenomenonTime = firstObs.getPhenomenonTime();
-                if (phenomenonTime.isInterval()) {
-                    latest = phenomenonTime.getAsInterval().getStart();
-                } else {
-                    latest = phenomenonTime.getAsDateTime().toInstant();
-                }
+            latest = getStored(ds);
+            if (latest == null && warmUp) {
+                warmUpDatastreams(ds.getService());
+                latest = datastreamCache.get(dsId);
+            }
+            if (latest == null) {
+                latest = fetchLatest(ds, ds.observations());
             }
             datastreamCache.put(dsId, latest);
         }
@@ -96,29 +186,96 @@ public class ValidatorNewer implements Validator, Configurable<SensorThingsServi
         Id dsId = mds.getId();
         Instant latest = multiDatastreamCache.get(dsId);
         if (latest == null) {
-            Observation firstObs = mds.observations().query().select("@iot.id", "phenomenonTime").orderBy("phenomenonTime desc").first();
-            if (firstObs == null) {
-                latest = Instant.MIN;
-            } else {
-                TimeObject phenomenonTime = firstObs.getPhenomenonTime();
-                if (phenomenonTime.isInterval()) {
-                    latest = phenomenonTime.getAsInterval().getStart();
-                } else {
-                    latest = phenomenonTime.getAsDateTime().toInstant();
-                }
+            latest = getStored(mds);
+            if (latest == null && warmUp) {
+                warmUpMultiDatastreams(mds.getService());
+                latest = multiDatastreamCache.get(dsId);
+            }
+            if (latest == null) {
+                latest = fetchLatest(mds, mds.observations());
             }
             multiDatastreamCache.put(dsId, latest);
         }
         return latest;
     }
 
-    @Override
-    public void configure(JsonElement config, SensorThingsService context, Object edtCtx, ConfigEditor<?> configEditor) {
+    /**
+     * @return The stored watermark, if it is fresh, or null.
+     */
+    private Instant getStored(Entity ds) {
+        if (watermarkStore == null) {
+            return null;
+        }
+        Watermark watermark = watermarkStore.get(WatermarkStore.keyFor(ds));
+        if (watermark != null && watermark.isFresh(watermarkMaxAgeSeconds * 1000L)) {
+            return watermark.start;
+        }
+        return null;
     }
 
-    @Override
-    public ConfigEditor<?> getConfigEditor(SensorThingsService context, Object edtCtx) {
-        return editor;
+    /**
+     * Fetches the watermarks of all Datastreams, once.
+     */
+    private synchronized void warmUpDatastreams(SensorThingsService service) {
+        if (warmedUpDatastreams) {
+            return;
+        }
+        warmedUpDatastreams = true;
+        try {
+            for (Map.Entry<Id, Watermark> entry : WatermarkFetcher.fetchDatastreams(service, warmUpFilter).entrySet()) {
+                datastreamCache.put(entry.getKey(), entry.getValue().start);
+                if (watermarkStore != null) {
+                    watermarkStore.put(WatermarkStore.keyForDatastream(entry.getKey()), entry.getValue().start, entry.getValue().end);
+                }
+            }
+        } catch (ServiceFailureException | RuntimeException ex) {
+            LOGGER.warn("Failed to warm up Datastream watermarks, fetching them one by one: {}", ex.getMessage());
+            LOGGER.debug("Details:", ex);
+        }
+    }
+
+    /**
+     * Fetches the watermarks of all MultiDatastreams, once.
+     */
+    private synchronized void warmUpMultiDatastreams(SensorThingsService service) {
+        if (warmedUpMultiDatastreams) {
+            return;
+        }
+        warmedUpMultiDatastreams = true;
+        try {
+            for (Map.Entry<Id, Watermark> entry : WatermarkFetcher.fetchMultiDatastreams(service, warmUpFilter).entrySet()) {
+                multiDatastreamCache.put(entry.getKey(), entry.getValue().start);
+                if (watermarkStore != null) {
+                    watermarkStore.put(WatermarkStore.keyForMultiDatastream(entry.getKey()), entry.getValue().start, entry.getValue().end);
+                }
+            }
+        } catch (ServiceFailureException | RuntimeException ex) {
+            LOGGER.warn("Failed to warm up MultiDatastream watermarks, fetching them one by one: {}", ex.getMessage());
+            LOGGER.debug("Details:", ex);
+        }
+    }
+
+    private Instant fetchLatest(Entity ds, BaseDao<Observation> observations) throws ServiceFailureException {
+        Instant latest;
+        Instant latestEnd;
+        Observation firstObs = observations.query().select("@iot.id", "phenomenonTime").orderBy("phenomenonTime desc").first();
+        if (firstObs == null) {
+            latest = Instant.MIN;
+            latestEnd = Instant.MIN;
+        } else {
+            TimeObject phenomenonTime = firstObs.getPhenomenonTime();
+            if (phenomenonTime.isInterval()) {
+                latest = phenomenonTime.getAsInterval().getStart();
+                latestEnd = phenomenonTime.getAsInterval().getEnd();
+            } else {
+                latest = phenomenonTime.getAsDateTime().toInstant();
+                latestEnd = latest;
+            }
+        }
+        if (watermarkStore != null) {
+            watermarkStore.put(WatermarkStore.keyFor(ds), latest, latestEnd);
+        }
+        return latest;
     }
 
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2026 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sensorthingsimporter.csv;
+
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author hylke
+ */
+public class CsvUtilsTest {
+
+    public static class Bean {
+
+        public String getName() {
+            return "bean \"one\"";
+        }
+    }
+
+    @Test
+    public void testFillTemplate() {
+        Map<String, Object> source = Map.of(
+                "a", Map.of("b", "value"),
+                "list", List.of("x", "y"),
+                "bean", new Bean());
+        Assert.assertEquals("v=value", CsvUtils.fillTemplate("v={a/b}", source));
+        Assert.assertEquals("y-x", CsvUtils.fillTemplate("{list/1}-{list/0}", source));
+        Assert.assertEquals("dflt", CsvUtils.fillTemplate("{a/c|dflt}", source));
+        Assert.assertEquals("", CsvUtils.fillTemplate("no {a/c} value", source));
+        Assert.assertEquals("bean \\\"one\\\"", CsvUtils.fillTemplate("{bean/name}", source));
+        Assert.assertEquals("dflt", CsvUtils.fillTemplate("{bean/other|dflt}", source));
+        Assert.assertEquals("plain", CsvUtils.fillTemplate("plain", source));
+        Assert.assertSame(CsvUtils.compile("v={a/b}", false), CsvUtils.compile("v={a/b}", false));
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2026 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sensorthingsimporter.csv;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author hylke
+ */
+public class MappedCsvFileTest {
+
+    private static String read(MappedCsvFile file, MappedCsvFile.Chunk chunk) throws IOException {
+        StringBuilder result = new StringBuilder();
+        try (Reader reader = file.openChunk(chunk)) {
+            int c;
+            while ((c = reader.read()) >= 0) {
+                result.append((char) c);
+            }
+        }
+        return result.toString();
+    }
+
+    @Test
+    public void testSplitRespectsQuotesAndComments() throws IOException {
+        Path path = Files.createTempFile("mapped", ".csv");
+        try {
+            String content = "\uFEFFa,b\n"
+                    + "1,\"x\ny\"\n"
+                    + "# comment with \" quote\n"
+                    + "\r\n"
+                    + "2,\"z\"\"\"\r\n"
+                    + "3,w";
+            Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+            MappedCsvFile file = MappedCsvFile.open(path, StandardCharsets.UTF_8, ',', "#", true, 1);
+            List<MappedCsvFile.Chunk> chunks = file.getChunks();
+            Assert.assertEquals(3, chunks.size());
+            Assert.assertEquals("a,b\n1,\"x\ny\"\n", read(file, chunks.get(0)));
+            Assert.assertEquals("a,b\n# comment with \" quote\n\r\n2,\"z\"\"\"\r\n", read(file, chunks.get(1)));
+            Assert.assertEquals("a,b\n3,w", read(file, chunks.get(2)));
+            Assert.assertEquals(0, chunks.get(0).getFirstRecord());
+            Assert.assertEquals(1, chunks.get(1).getFirstRecord());
+            Assert.assertEquals(2, chunks.get(2).getFirstRecord());
+            Assert.assertEquals(1, chunks.get(2).getRecordCount());
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testQuoteInsideUnquotedField() throws IOException {
+        Path path = Files.createTempFile("mapped", ".csv");
+        try {
+            Files.write(path, "1;5\" pipe\n2;\"a;\nb\"\n3;c\n".getBytes(StandardCharsets.UTF_8));
+            MappedCsvFile file = MappedCsvFile.open(path, StandardCharsets.UTF_8, ';', null, false, 1);
+            List<MappedCsvFile.Chunk> chunks = file.getChunks();
+            Assert.assertEquals(3, chunks.size());
+            Assert.assertEquals("1;5\" pipe\n", read(file, chunks.get(0)));
+            Assert.assertEquals("2;\"a;\nb\"\n", read(file, chunks.get(1)));
+            Assert.assertEquals("3;c\n", read(file, chunks.get(2)));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testLargeChunksWithoutHeader() throws IOException {
+        Path path = Files.createTempFile("mapped", ".csv");
+        try {
+            Files.write(path, "1,a\n2,b\n3,c\n".getBytes(StandardCharsets.ISO_8859_1));
+            MappedCsvFile file = MappedCsvFile.open(path, StandardCharsets.ISO_8859_1, ',', null, false, 6);
+            List<MappedCsvFile.Chunk> chunks = file.getChunks();
+            Assert.assertEquals(2, chunks.size());
+            Assert.assertEquals("1,a\n2,b\n", read(file, chunks.get(0)));
+            Assert.assertEquals(2, chunks.get(0).getRecordCount());
+            Assert.assertEquals("3,c\n", read(file, chunks.get(1)));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testUnsupportedCharset() throws IOException {
+        Path path = Files.createTempFile("mapped", ".csv");
+        try {
+            Files.write(path, "1,a\n".getBytes(StandardCharsets.UTF_16));
+            Assert.assertNull(MappedCsvFile.open(path, StandardCharsets.UTF_16, ',', null, false, 6));
+            Assert.assertNull(MappedCsvFile.open(path, StandardCharsets.UTF_8, ',', null, false, 6));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2026 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sensorthingsimporter.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author hylke
+ */
+public class AdaptiveBatchSizeTest {
+
+    @Test
+    public void testGrowsOnFastServer() {
+        AdaptiveBatchSize instance = new AdaptiveBatchSize(100, 10_000, 1000, 1000);
+        for (int i = 0; i < 20; i++) {
+            int size = instance.getBatchSize();
+            // 0.01 ms per item, the server could handle 100000 items in 1s.
+            instance.registerRequest(size, 0, size / 100);
+        }
+        Assert.assertEquals(10_000, instance.getBatchSize());
+    }
+
+    @Test
+    public void testShrinksOnSlowServer() {
+        AdaptiveBatchSize instance = new AdaptiveBatchSize(100, 10_000, 1000, 1000);
+        for (int i = 0; i < 20; i++) {
+            int size = instance.getBatchSize();
+            // 2 ms per item, the server can handle 500 items in 1s.
+            instance.registerRequest(size, 0, size * 2L);
+        }
+        int size = instance.getBatchSize();
+        Assert.assertTrue("Expected about 500, got " + size, size > 450 && size < 550);
+    }
+
+    @Test
+    public void testCappedByPayload() {
+        AdaptiveBatchSize instance = new AdaptiveBatchSize(100, 10_000, 1000, 1000, 100_000);
+        for (int i = 0; i < 20; i++) {
+            int size = instance.getBatchSize();
+            // A fast server, but 200 bytes per item, only 500 items fit.
+            instance.registerRequest(size, 0, size / 100, size * 200L);
+        }
+        int size = instance.getBatchSize();
+        Assert.assertTrue("Expected about 500, got " + size, size > 450 && size < 550);
+    }
+
+    @Test
+    public void testFailureHalvesWithinBounds() {
+        AdaptiveBatchSize instance = new AdaptiveBatchSize(100, 10_000, 1000, 1000);
+        instance.registerFailure();
+        Assert.assertEquals(500, instance.getBatchSize());
+        for (int i = 0; i < 10; i++) {
+            instance.registerFailure();
+        }
+        Assert.assertEquals(100, instance.getBatchSize());
+    }
+
+    @Test
+    public void testNoGrowthWithErrors() {
+        AdaptiveBatchSize instance = new AdaptiveBatchSize(100, 10_000, 1000, 1000);
+        instance.registerRequest(1000, 500, 10);
+        Assert.assertEquals(1000, instance.getBatchSize());
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2026 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sensorthingsimporter.utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author hylke
+ */
+public class DataArraySpoolTest {
+
+    @Test
+    public void testReplayInOrderAndKeepOnFailure() throws IOException {
+        Path dir = Files.createTempDirectory("spool");
+        try {
+            DataArraySpool spool = new DataArraySpool(dir, 20, 5);
+            spool.append("[\"a\"]", 0);
+            spool.append("[\"b\"]", 0);
+            spool.append("[\"c\"]", 0);
+
+            List<String> sent = new ArrayList<>();
+            int count = spool.replay(batch -> {
+                if (batch.contains("b")) {
+                    throw new IOException("Server down");
+                }
+                sent.add(batch);
+                return null;
+            });
+            Assert.assertEquals(1, count);
+            Assert.assertFalse(spool.isEmpty());
+
+            // Re-open, as after a restart.
+            spool = new DataArraySpool(dir, 20, 5);
+            count = spool.replay(batch -> {
+                sent.add(batch);
+                return null;
+            });
+            Assert.assertEquals(2, count);
+            Assert.assertEquals(List.of("[\"a\"]", "[\"b\"]", "[\"c\"]"), sent);
+            Assert.assertTrue(spool.isEmpty());
+        } finally {
+            FileUtils.deleteDirectory(dir.toFile());
+        }
+    }
+
+    @Test
+    public void testRejectedDroppedAfterMaxAttempts() throws IOException {
+        Path dir = Files.createTempDirectory("spool");
+        try {
+            DataArraySpool spool = new DataArraySpool(dir, 1024, 2);
+            spool.append("[\"a\"]", 0);
+            int total = 0;
+            for (int i = 0; i < 5; i++) {
+                total += spool.replay(batch -> batch);
+            }
+            Assert.assertEquals(3, total);
+            Assert.assertTrue(spool.isEmpty());
+        } finally {
+            FileUtils.deleteDirectory(dir.toFile());
+        }
+    }
+
+}
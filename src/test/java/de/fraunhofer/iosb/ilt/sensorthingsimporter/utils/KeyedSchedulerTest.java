@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2026 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sensorthingsimporter.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author hylke
+ */
+public class KeyedSchedulerTest {
+
+    @Test
+    public void testOneWorkerPerKey() throws InterruptedException {
+        final KeyedScheduler<Integer, Integer> instance = new KeyedScheduler<>(Integer::compare, k -> false, 1000);
+        final Set<Integer> running = ConcurrentHashMap.newKeySet();
+        final AtomicBoolean overlap = new AtomicBoolean();
+        final List<Integer> key0 = Collections.synchronizedList(new ArrayList<>());
+        final AtomicBoolean done = new AtomicBoolean();
+        final List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread t = new Thread(() -> {
+                while (!done.get()) {
+                    try {
+                        instance.runNext(10, TimeUnit.MILLISECONDS, (key, work) -> {
+                            if (!running.add(key)) {
+                                overlap.set(true);
+                            }
+                            if (key == 0) {
+                                key0.add(work);
+                            }
+                            Thread.yield();
+                            running.remove(key);
+                        });
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+            });
+            workers.add(t);
+            t.start();
+        }
+        for (int i = 0; i < 500; i++) {
+            instance.submit(i % 5, i);
+        }
+        instance.awaitIdle();
+        done.set(true);
+        for (Thread t : workers) {
+            t.join();
+        }
+        Assert.assertFalse("A key was processed by two workers at once.", overlap.get());
+        Assert.assertEquals(100, key0.size());
+        for (int i = 1; i < key0.size(); i++) {
+            Assert.assertTrue(key0.get(i) > key0.get(i - 1));
+        }
+    }
+
+    @Test
+    public void testBlockedKeyWaitsForWakeUp() throws InterruptedException {
+        final AtomicBoolean blocked = new AtomicBoolean(true);
+        final KeyedScheduler<String, String> instance = new KeyedScheduler<>(String::compareTo, k -> blocked.get(), 10);
+        final List<String> seen = new ArrayList<>();
+        instance.submit("a", "work");
+        Assert.assertFalse(instance.runNext(0, TimeUnit.MILLISECONDS, (k, w) -> seen.add(w)));
+        blocked.set(false);
+        instance.wakeUp("a");
+        Assert.assertTrue(instance.runNext(0, TimeUnit.MILLISECONDS, (k, w) -> seen.add(w)));
+        Assert.assertEquals(List.of("work"), seen);
+        Assert.assertEquals(0, instance.getPendingCount());
+    }
+
+    @Test
+    public void testBlockedBetweenItems() throws InterruptedException {
+        final AtomicBoolean blocked = new AtomicBoolean(false);
+        final KeyedScheduler<String, String> instance = new KeyedScheduler<>(String::compareTo, k -> blocked.get(), 10);
+        final List<String> seen = new ArrayList<>();
+        instance.submit("a", "first");
+        instance.submit("a", "second");
+        // The first item blocks the key, as unsent Observations would.
+        Assert.assertTrue(instance.runNext(0, TimeUnit.MILLISECONDS, (k, w) -> {
+            seen.add(w);
+            blocked.set(true);
+        }));
+        Assert.assertFalse(instance.runNext(0, TimeUnit.MILLISECONDS, (k, w) -> seen.add(w)));
+        Assert.assertEquals(List.of("first"), seen);
+        blocked.set(false);
+        instance.wakeUp("a");
+        Assert.assertTrue(instance.runNext(0, TimeUnit.MILLISECONDS, (k, w) -> seen.add(w)));
+        Assert.assertEquals(List.of("first", "second"), seen);
+    }
+
+}
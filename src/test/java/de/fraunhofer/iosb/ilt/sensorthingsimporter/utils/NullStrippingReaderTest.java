@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2026 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sensorthingsimporter.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author hylke
+ */
+public class NullStrippingReaderTest {
+
+    @Test
+    public void testStripsNulls() throws IOException {
+        Reader reader = new NullStrippingReader(new StringReader("\u0000a,b\u0000\u0000,c\n\u0000"));
+        StringBuilder result = new StringBuilder();
+        char[] buffer = new char[3];
+        int count;
+        while ((count = reader.read(buffer, 0, buffer.length)) >= 0) {
+            result.append(buffer, 0, count);
+        }
+        Assert.assertEquals("a,b,c\n", result.toString());
+    }
+
+    @Test
+    public void testOnlyNullsInBuffer() throws IOException {
+        Reader reader = new NullStrippingReader(new StringReader("\u0000\u0000\u0000\u0000xy"));
+        char[] buffer = new char[2];
+        Assert.assertEquals(2, reader.read(buffer, 0, 2));
+        Assert.assertEquals("xy", new String(buffer));
+        Assert.assertEquals(-1, reader.read(buffer, 0, 2));
+    }
+
+    @Test
+    public void testSingleCharRead() throws IOException {
+        Reader reader = new NullStrippingReader(new StringReader("\u0000a\u0000"));
+        Assert.assertEquals('a', reader.read());
+        Assert.assertEquals(-1, reader.read());
+    }
+
+}
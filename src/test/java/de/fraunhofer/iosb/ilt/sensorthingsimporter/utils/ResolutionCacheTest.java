@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2026 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sensorthingsimporter.utils;
+
+import de.fraunhofer.iosb.ilt.sensorthingsimporter.ImportException;
+import de.fraunhofer.iosb.ilt.sta.ServiceFailureException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author hylke
+ */
+public class ResolutionCacheTest {
+
+    @Test
+    public void testNegativeEntriesAndTtl() throws ServiceFailureException, ImportException {
+        AtomicLong now = new AtomicLong();
+        ResolutionCache cache = new ResolutionCache(100, 1000, 10, now::get);
+        AtomicInteger loads = new AtomicInteger();
+        ResolutionCache.Loader<String> found = () -> "v" + loads.incrementAndGet();
+        ResolutionCache.Loader<String> notFound = () -> {
+            loads.incrementAndGet();
+            return null;
+        };
+
+        Assert.assertEquals("v1", cache.get("Thing", "a", found));
+        Assert.assertNull(cache.get("Thing", "b", notFound));
+        Assert.assertEquals("v1", cache.get("Thing", "a", found));
+        Assert.assertNull(cache.get("Thing", "b", notFound));
+        Assert.assertEquals(2, loads.get());
+
+        // Same filter, different type.
+        Assert.assertEquals("v3", cache.get("Sensor", "a", found));
+
+        now.set(TimeUnit.MILLISECONDS.toNanos(11));
+        Assert.assertNull(cache.get("Thing", "b", notFound));
+        Assert.assertEquals("v1", cache.get("Thing", "a", found));
+        Assert.assertEquals(4, loads.get());
+
+        now.set(TimeUnit.MILLISECONDS.toNanos(1001));
+        Assert.assertEquals("v5", cache.get("Thing", "a", found));
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        ResolutionCache cache = new ResolutionCache(100, 0, 0);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ResolutionCache.Loader<String> slow = () -> {
+            loads.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                throw new ImportException("Interrupted", ex);
+            }
+            return "ds";
+        };
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(pool.submit(() -> cache.get("Datastream", "station", slow)));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<String> result : results) {
+                Assert.assertEquals("ds", result.get(5, TimeUnit.SECONDS));
+            }
+            Assert.assertEquals(1, loads.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() throws ServiceFailureException, ImportException {
+        ResolutionCache cache = new ResolutionCache(100, 0, 0);
+        try {
+            cache.get("Thing", "a", () -> {
+                throw new ImportException("Too many Things");
+            });
+            Assert.fail("Expected an ImportException");
+        } catch (ImportException ex) {
+            // Expected.
+        }
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals("t", cache.get("Thing", "a", () -> "t"));
+    }
+
+    @Test
+    public void testErrorInLoadIsNotCached() throws ServiceFailureException, ImportException {
+        ResolutionCache cache = new ResolutionCache(100, 0, 0);
+        try {
+            cache.get("Thing", "a", () -> {
+                throw new AssertionError("Broken loader");
+            });
+            Assert.fail("Expected an AssertionError");
+        } catch (AssertionError ex) {
+            Assert.assertEquals("Broken loader", ex.getMessage());
+        }
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals("t", cache.get("Thing", "a", () -> "t"));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws ServiceFailureException, ImportException {
+        AtomicLong now = new AtomicLong();
+        ResolutionCache cache = new ResolutionCache(10, 0, 0, now::get);
+        for (int i = 0; i < 10; i++) {
+            now.incrementAndGet();
+            final String value = "v" + i;
+            cache.get("Thing", "k" + i, () -> value);
+        }
+        now.incrementAndGet();
+        cache.get("Thing", "k0", () -> "reloaded");
+        now.incrementAndGet();
+        cache.get("Thing", "k10", () -> "v10");
+        Assert.assertEquals(9, cache.size());
+        Assert.assertEquals("v0", cache.get("Thing", "k0", () -> "reloaded"));
+        Assert.assertEquals("reloaded", cache.get("Thing", "k1", () -> "reloaded"));
+    }
+
+}
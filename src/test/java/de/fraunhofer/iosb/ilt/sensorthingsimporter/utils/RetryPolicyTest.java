@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2026 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sensorthingsimporter.utils;
+
+import de.fraunhofer.iosb.ilt.sta.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.sta.StatusCodeException;
+import java.net.SocketException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author hylke
+ */
+public class RetryPolicyTest {
+
+    @Test
+    public void testIsRetryable() {
+        Assert.assertTrue(RetryPolicy.isRetryable(new StatusCodeException("u", 503, "Unavailable", "")));
+        Assert.assertTrue(RetryPolicy.isRetryable(new StatusCodeException("u", 429, "Too Many Requests", "")));
+        Assert.assertFalse(RetryPolicy.isRetryable(new StatusCodeException("u", 400, "Bad Request", "")));
+        Assert.assertTrue(RetryPolicy.isRetryable(new ServiceFailureException(new SocketException("Connection reset"))));
+        Assert.assertFalse(RetryPolicy.isRetryable(new ServiceFailureException("Other")));
+        Assert.assertTrue(RetryPolicy.isRetryable(408));
+        Assert.assertFalse(RetryPolicy.isRetryable(404));
+    }
+
+    @Test
+    public void testRetriesUntilSuccess() throws ServiceFailureException {
+        RetryPolicy instance = new RetryPolicy(3, 1, 4, new CircuitBreaker(0, 1));
+        AtomicInteger calls = new AtomicInteger();
+        String result = instance.execute(() -> {
+            if (calls.incrementAndGet() < 3) {
+                throw new StatusCodeException("u", 502, "Bad Gateway", "");
+            }
+            return "ok";
+        });
+        Assert.assertEquals("ok", result);
+        Assert.assertEquals(2, instance.getRetries());
+    }
+
+    @Test
+    public void testBackoffBounds() {
+        RetryPolicy instance = new RetryPolicy(10, 100, 1000, new CircuitBreaker(0, 1));
+        for (int i = 0; i < 100; i++) {
+            long first = instance.backoffDelay(0);
+            Assert.assertTrue(first >= 50 && first <= 100);
+            long late = instance.backoffDelay(8);
+            Assert.assertTrue(late >= 500 && late <= 1000);
+        }
+    }
+
+    @Test
+    public void testBreakerOpensAndCloses() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(2, 50);
+        breaker.registerFailure();
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.registerFailure();
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        long start = System.currentTimeMillis();
+        breaker.awaitPermission();
+        Assert.assertTrue(System.currentTimeMillis() - start >= 40);
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.registerFailure();
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assert.assertEquals(2, breaker.getOpenCount());
+        breaker.awaitPermission();
+        breaker.registerSuccess();
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testProbeThrowingReleasesBreaker() throws ServiceFailureException, InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 20);
+        RetryPolicy instance = new RetryPolicy(0, 1, 1, breaker);
+        try {
+            instance.execute(() -> {
+                throw new StatusCodeException("u", 503, "Unavailable", "");
+            });
+            Assert.fail("Expected a StatusCodeException");
+        } catch (StatusCodeException exc) {
+            // Expected.
+        }
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        try {
+            instance.execute(() -> {
+                throw new IllegalStateException("Unexpected");
+            });
+            Assert.fail("Expected an IllegalStateException");
+        } catch (IllegalStateException exc) {
+            // Expected.
+        }
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assert.assertEquals("ok", instance.execute(() -> "ok"));
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testLostProbeIsReissued() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 20);
+        breaker.registerFailure();
+        breaker.awaitPermission();
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        // The probe never reports back, the next thread probes after the open period.
+        long start = System.currentTimeMillis();
+        breaker.awaitPermission();
+        Assert.assertTrue(System.currentTimeMillis() - start >= 15);
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2026 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sensorthingsimporter.validator;
+
+import de.fraunhofer.iosb.ilt.sta.model.IdLong;
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import de.fraunhofer.iosb.ilt.sta.model.TimeObject;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import org.junit.Assert;
+import org.junit.Test;
+import org.threeten.extra.Interval;
+
+/**
+ *
+ * @author hylke
+ */
+public class ObsCacheTest {
+
+    private static final Instant BASE = Instant.parse("2020-01-01T00:00:00Z");
+
+    private static TimeObject instant(long hours) {
+        return new TimeObject(BASE.plusSeconds(hours * 3600).atZone(ZoneOffset.UTC));
+    }
+
+    private static TimeObject interval(long startHours, long endHours) {
+        return new TimeObject(Interval.of(BASE.plusSeconds(startHours * 3600), BASE.plusSeconds(endHours * 3600)));
+    }
+
+    private static Observation obs(TimeObject time, long id, Object result) {
+        Observation obs = new Observation();
+        obs.setId(new IdLong(id));
+        obs.setResult(result);
+        obs.setPhenomenonTime(time);
+        return obs;
+    }
+
+    @Test
+    public void testOutOfOrderInserts() {
+        ObsCache instance = new ObsCache(new IdLong(1), null, false);
+        for (long hour : new long[]{5, 1, 3, 0, 4, 2}) {
+            Assert.assertNull(instance.put(instant(hour), obs(instant(hour), 100 + hour, hour * 10)));
+        }
+        Assert.assertEquals(6, instance.size());
+        for (long hour = 0; hour < 6; hour++) {
+            Observation found = instance.get(instant(hour));
+            Assert.assertEquals(new IdLong(100 + hour), found.getId());
+            Assert.assertEquals(hour * 10, found.getResult());
+        }
+        Assert.assertNull(instance.get(instant(6)));
+        Assert.assertNull(instance.get(instant(-1)));
+    }
+
+    @Test
+    public void testReplace() {
+        ObsCache instance = new ObsCache(new IdLong(1), null, false);
+        instance.put(instant(1), obs(instant(1), 10, "a"));
+        instance.put(instant(2), obs(instant(2), 20, "b"));
+        Observation old = instance.put(instant(1), obs(instant(1), 11, "c"));
+        Assert.assertEquals(new IdLong(10), old.getId());
+        Assert.assertEquals("a", old.getResult());
+        Assert.assertEquals(2, instance.size());
+        Assert.assertEquals(new IdLong(11), instance.get(instant(1)).getId());
+        Assert.assertEquals("c", instance.get(instant(1)).getResult());
+    }
+
+    @Test
+    public void testInstantAndIntervalKeys() {
+        ObsCache instance = new ObsCache(new IdLong(1), null, false);
+        instance.put(instant(1), obs(instant(1), 10, 1));
+        instance.put(interval(1, 2), obs(interval(1, 2), 20, 2));
+        instance.put(interval(0, 1), obs(interval(0, 1), 30, 3));
+        Assert.assertEquals(3, instance.size());
+        Assert.assertEquals(new IdLong(10), instance.get(instant(1)).getId());
+        Assert.assertEquals(new IdLong(20), instance.get(interval(1, 2)).getId());
+        Assert.assertEquals(new IdLong(30), instance.get(interval(0, 1)).getId());
+        Assert.assertNull(instance.get(interval(1, 3)));
+        // An empty interval is the same key as the instant.
+        Assert.assertEquals(new IdLong(10), instance.get(interval(1, 1)).getId());
+    }
+
+    @Test
+    public void testTimesOutsideNanoRangeAreNotCached() {
+        ObsCache instance = new ObsCache(new IdLong(1), null, false);
+        TimeObject far = new TimeObject(Instant.parse("3000-01-01T00:00:00Z").atZone(ZoneOffset.UTC));
+        TimeObject farEnd = new TimeObject(Interval.of(BASE, Instant.parse("3000-01-01T00:00:00Z")));
+        Assert.assertNull(instance.put(far, obs(far, 10, 1)));
+        Assert.assertNull(instance.put(farEnd, obs(farEnd, 20, 2)));
+        Assert.assertNull(instance.get(far));
+        Assert.assertNull(instance.get(farEnd));
+        Assert.assertTrue(instance.isEmpty());
+        TimeObject limit = new TimeObject(Instant.parse("2262-01-01T00:00:00Z").atZone(ZoneOffset.UTC));
+        instance.put(limit, obs(limit, 30, 3));
+        Assert.assertEquals(new IdLong(30), instance.get(limit).getId());
+    }
+
+}